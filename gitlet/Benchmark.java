@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Micro-benchmarks for Gitlet's storage and merge code. Usage:
+ *
+ *      java gitlet.Benchmark compression DIR [REPS]
+ *
+ *  stores every file under DIR as a loose blob at each compression
+ *  level, and reports the bytes on disk and the mean time to read a blob
+ *  back over REPS passes (default 20).
+ *
+ *      java gitlet.Benchmark merge [LINES]
+ *
+ *  times three-way merges of generated files of LINES lines (default
+ *  200000): scattered edits on both sides, sides rewritten completely,
+ *  and sides drawn from a two-line alphabet, the worst case for the
+ *  line diff.
+ *
+ *  @author charlesellis
+ */
+public class Benchmark {
+
+    /** Runs the benchmark named by ARGS[0] with operands ARGS[1..].
+     * @param args the arguments */
+    public static void main(String... args) throws IOException {
+        if (args.length >= 2 && args[0].equals("compression")) {
+            int reps = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+            compression(new File(args[1]), reps);
+        } else if (args.length >= 1 && args[0].equals("merge")) {
+            merge(args.length > 1 ? Integer.parseInt(args[1]) : 200000);
+        } else {
+            System.err.println("Usage: java gitlet.Benchmark compression "
+                    + "DIR [REPS]");
+            System.err.println("       java gitlet.Benchmark merge "
+                    + "[LINES]");
+            System.exit(1);
+        }
+    }
+
+    /** Reports size and read time of the files under DIR stored as loose
+     *  blobs, uncompressed and at several compression levels, averaging
+     *  read times over REPS passes.
+     * @param dir the sample files
+     * @param reps number of read passes */
+    static void compression(File dir, int reps) throws IOException {
+        List<byte[]> blobs = new ArrayList<>();
+        long raw = 0;
+        for (File f : files(dir)) {
+            byte[] blob = Utils.readContents(f);
+            blobs.add(blob);
+            raw += blob.length;
+        }
+        File tmp = Files.createTempDirectory("gitlet-bench").toFile();
+        System.out.printf("%d blobs, %d bytes uncompressed%n",
+                blobs.size(), raw);
+        System.out.printf("%-6s %12s %8s %14s%n", "level", "bytes",
+                "ratio", "read us/blob");
+        int[] levels = {-1, 0, 1, 3, 6, 9};
+        for (int level : levels) {
+            ArrayList<File> written = new ArrayList<>();
+            long bytes = 0;
+            for (int i = 0; i < blobs.size(); i += 1) {
+                File out = Utils.join(tmp, level + "-" + i);
+                if (level < 0) {
+                    Utils.writeContents(out, blobs.get(i));
+                } else {
+                    Utils.writeCompressed(out, blobs.get(i), level);
+                }
+                bytes += out.length();
+                written.add(out);
+            }
+            for (File f : written) {
+                Utils.readCompressed(f);
+            }
+            long start = System.nanoTime();
+            for (int r = 0; r < reps; r += 1) {
+                for (File f : written) {
+                    Utils.readCompressed(f);
+                }
+            }
+            double micros = (System.nanoTime() - start) / 1000.0
+                / Math.max(1, reps * written.size());
+            System.out.printf("%-6s %12d %8.3f %14.1f%n",
+                    level < 0 ? "raw" : Integer.toString(level), bytes,
+                    (double) bytes / Math.max(1, raw), micros);
+            for (File f : written) {
+                f.delete();
+            }
+        }
+        tmp.delete();
+    }
+
+    /** Reports the time to merge generated files of LINES lines.
+     * @param lines number of lines in each file */
+    static void merge(int lines) {
+        Random random = new Random(61);
+        StringBuilder base = new StringBuilder();
+        StringBuilder ours = new StringBuilder();
+        StringBuilder theirs = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            String line = "line " + i + " " + random.nextLong() + "\n";
+            base.append(line);
+            ours.append(i % 100 == 7 ? "ours " + line : line);
+            theirs.append(i % 100 == 57 ? "theirs " + line : line);
+        }
+        merge("scattered", base, ours, theirs);
+        ours.setLength(0);
+        theirs.setLength(0);
+        for (int i = 0; i < lines; i += 1) {
+            ours.append("ours ").append(i).append('\n');
+            theirs.append("theirs ").append(i).append('\n');
+        }
+        merge("rewritten", base, ours, theirs);
+        base.setLength(0);
+        ours.setLength(0);
+        theirs.setLength(0);
+        for (int i = 0; i < lines; i += 1) {
+            base.append(random.nextBoolean() ? "a\n" : "b\n");
+            ours.append(random.nextBoolean() ? "a\n" : "b\n");
+            theirs.append(random.nextBoolean() ? "a\n" : "b\n");
+        }
+        merge("alphabet", base, ours, theirs);
+    }
+
+    /** Merges OURS and THEIRS from BASE and reports the time taken
+     *  under the name NAME.
+     * @param name the case
+     * @param base contents at the split point
+     * @param ours contents in the current branch
+     * @param theirs contents in the given branch */
+    private static void merge(String name, CharSequence base,
+                              CharSequence ours, CharSequence theirs) {
+        byte[] b = LineDiff.bytes(base);
+        byte[] o = LineDiff.bytes(ours);
+        byte[] t = LineDiff.bytes(theirs);
+        long start = System.nanoTime();
+        LineMerge merge = new LineMerge(b, o, t);
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%-10s %10d bytes %8d conflicts %10.1f ms%n",
+                name, b.length + o.length + t.length, merge.conflicts(),
+                millis);
+    }
+
+    /** Returns the plain files under DIR, in sorted order.
+     * @param dir the directory */
+    private static List<File> files(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                .filter(p -> !p.toString().contains(".gitlet"))
+                .sorted().map(Path::toFile).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Writes the files of a checkout, reset or merge into the working
+ *  directory. The blobs are decompressed into temporary files
+ *  concurrently, on a pool of at most THREADS threads so that the number
+ *  of files being written at once stays bounded, in a directory under
+ *  .gitlet made afresh for each writer, so that concurrent processes
+ *  never share one. Only when every one has been written are the files
+ *  to be deleted, and those to be replaced, renamed aside and the new
+ *  ones renamed into place. If a rename fails, those already made are
+ *  undone, so a failure leaves the working directory untouched, and the
+ *  failure reported is always that of the first failing path in name
+ *  order, whatever the scheduling.
+ *
+ *  The number of threads is the value of the system property
+ *  gitlet.checkout.threads, by default that used to scan the working
+ *  directory.
+ *
+ *  @author charlesellis
+ */
+class CheckoutWriter {
+
+    /** Number of writer threads. */
+    static final int THREADS = Math.max(1, Integer.getInteger(
+            "gitlet.checkout.threads", TreeScanner.THREADS));
+    /** Number of files below which a task is not split further. */
+    private static final int LEAF = 4;
+
+    /** A writer of FILES, a map from path to blob ID, into the working
+     *  directory DIR of the repository whose .gitlet directory is
+     *  GITFILE, reading blobs from STORE.
+     * @param dir the working directory
+     * @param gitFile the .gitlet directory
+     * @param store the object store
+     * @param files the paths to write and their blob IDs */
+    CheckoutWriter(File dir, File gitFile, ObjectStore store,
+                   Map<String, String> files) {
+        _dir = dir;
+        _gitFile = gitFile;
+        _store = store;
+        _names = new ArrayList<>(new TreeMap<>(files).keySet());
+        _blobs = new ArrayList<>();
+        for (String name : _names) {
+            _blobs.add(files.get(name));
+        }
+    }
+
+    /** Writes every file to a temporary file. If any cannot be written,
+     *  deletes them all and throws a GitletException naming the first
+     *  failing path. */
+    void prepare() {
+        int n = _names.size();
+        _staged = new File[n];
+        String[] errors = new String[n];
+        if (n == 0) {
+            return;
+        }
+        tmp();
+        Task all = new Task(errors, 0, n);
+        if (THREADS == 1 || n <= LEAF) {
+            all.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(THREADS);
+            try {
+                pool.invoke(all);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (int i = 0; i < n; i += 1) {
+            if (errors[i] != null) {
+                discard();
+                throw new GitletException("Cannot write " + _names.get(i)
+                        + ": " + errors[i]);
+            }
+        }
+    }
+
+    /** Renames the working files DELETIONS aside, removing directories
+     *  they leave empty, then moves the files written by prepare into
+     *  place, renaming aside the files they replace and creating the
+     *  directories they need, and returns their paths, in order. The
+     *  files renamed aside are deleted only once every move has
+     *  succeeded; if one fails, the moves made are undone and a
+     *  GitletException names the failing path.
+     * @param deletions paths of working files to delete */
+    List<String> install(List<String> deletions) {
+        ArrayDeque<File[]> done = new ArrayDeque<>();
+        ArrayList<File> made = new ArrayList<>();
+        String name = null;
+        String verb = "delete ";
+        try {
+            for (String path : deletions) {
+                name = path;
+                File f = Utils.join(_dir, path);
+                if (f.isFile()) {
+                    move(f, aside(), done);
+                    File d = f.getParentFile();
+                    while (!d.equals(_dir) && d.delete()) {
+                        d = d.getParentFile();
+                    }
+                }
+            }
+            verb = "write ";
+            for (int i = 0; i < _names.size(); i += 1) {
+                name = _names.get(i);
+                File dest = Utils.join(_dir, name);
+                if (dest.isFile()) {
+                    move(dest, aside(), done);
+                }
+                for (File d = dest.getParentFile(); !d.exists();
+                     d = d.getParentFile()) {
+                    made.add(0, d);
+                }
+                dest.getParentFile().mkdirs();
+                move(_staged[i], dest, done);
+                _staged[i] = null;
+            }
+        } catch (IOException excp) {
+            undo(done, made);
+            discard();
+            throw new GitletException("Cannot " + verb + name + ": "
+                                      + excp.getMessage());
+        }
+        discard();
+        return _names;
+    }
+
+    /** Returns the blob ID written to the Ith path.
+     * @param i index of a path returned by install */
+    String blob(int i) {
+        return _blobs.get(i);
+    }
+
+    /** Renames FROM to TO, recording the move in DONE.
+     * @param from the file moved
+     * @param to its new name
+     * @param done moves made so far, latest first */
+    private static void move(File from, File to, ArrayDeque<File[]> done)
+        throws IOException {
+        Files.move(from.toPath(), to.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        done.push(new File[] {from, to});
+    }
+
+    /** Undoes the moves DONE, latest first, recreating the directories
+     *  they need, then removes the directories MADE for them, innermost
+     *  first, if they are empty. Moves that cannot be undone are
+     *  skipped.
+     * @param done moves made, latest first
+     * @param made directories created, outermost first */
+    private static void undo(ArrayDeque<File[]> done, List<File> made) {
+        for (File[] move : done) {
+            move[0].getParentFile().mkdirs();
+            try {
+                Files.move(move[1].toPath(), move[0].toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                continue;
+            }
+        }
+        for (int i = made.size() - 1; i >= 0; i -= 1) {
+            made.get(i).delete();
+        }
+    }
+
+    /** Returns a new name in the temporary directory for a working file
+     *  renamed aside. */
+    private File aside() {
+        _aside += 1;
+        return new File(tmp(), _aside + ".old");
+    }
+
+    /** Returns the temporary directory, creating it if needed. */
+    private File tmp() {
+        if (_tmp == null) {
+            try {
+                _tmp = Files.createTempDirectory(_gitFile.toPath(),
+                                                 "checkout-").toFile();
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+        return _tmp;
+    }
+
+    /** Deletes the temporary directory and every file left in it. */
+    private void discard() {
+        if (_tmp == null) {
+            return;
+        }
+        File[] left = _tmp.listFiles();
+        if (left != null) {
+            for (File f : left) {
+                f.delete();
+            }
+        }
+        _tmp.delete();
+        _tmp = null;
+    }
+
+    /** Writes a range of the files to temporary files. */
+    private class Task extends RecursiveAction {
+
+        /** Serialization version; tasks are never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        /** Writes files LO..HI-1, recording in ERRORS[i] why file i could
+         *  not be written.
+         * @param errors the failures, by index
+         * @param lo first index
+         * @param hi index after the last */
+        Task(String[] errors, int lo, int hi) {
+            _errors = errors;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= LEAF) {
+                for (int i = _lo; i < _hi; i += 1) {
+                    write(i);
+                }
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Task(_errors, _lo, mid),
+                          new Task(_errors, mid, _hi));
+            }
+        }
+
+        /** Writes the Ith file to a temporary file.
+         * @param i the index */
+        private void write(int i) {
+            File f = Utils.join(_tmp, i + ".tmp");
+            try {
+                _store.copyBlob(_blobs.get(i), f);
+                _staged[i] = f;
+            } catch (RuntimeException excp) {
+                f.delete();
+                _errors[i] = excp.getMessage() == null
+                    ? excp.toString() : excp.getMessage();
+            }
+        }
+
+        /** Failures, by index. */
+        private final String[] _errors;
+        /** First index. */
+        private final int _lo;
+        /** Index after the last. */
+        private final int _hi;
+    }
+
+    /** The working directory. */
+    private File _dir;
+    /** The .gitlet directory. */
+    private File _gitFile;
+    /** Directory of temporary files, or null if not yet made. */
+    private File _tmp;
+    /** Number of working files renamed aside. */
+    private int _aside;
+    /** The object store. */
+    private ObjectStore _store;
+    /** Paths to write, in order. */
+    private List<String> _names;
+    /** Blob IDs of _names. */
+    private List<String> _blobs;
+    /** Temporary files written, by index, null once moved. */
+    private File[] _staged;
+}
@@ -1,16 +1,27 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.function.Function;
 
 /** Commit class.
+ *
+ * Commits are stored and hashed in a canonical text encoding (see
+ * {@link #encode()}) that holds only the ID of the commit's top tree,
+ * the parent IDs, the author time and the message, so a commit's ID
+ * depends neither on its history nor on the layout of this class. The
+ * file map is read from the trees only when it is asked for. Commits
+ * written before trees existed list their files instead.
  *
  * @author charlesellis */
-public class Commit implements Serializable {
+public class Commit {
 
     /**
      * String of commit message.
@@ -18,29 +29,43 @@ public class Commit implements Serializable {
     private String _message;
 
     /**
-     * String of timestamp.
+     * Author time of this commit, in seconds since the epoch.
      */
-    protected String _timestamp;
+    protected long _time;
 
     /**
-     * Parent commit of this commit.
+     * Time zone offset of the author time, e.g. "-0800".
      */
-    protected Commit _parent;
+    protected String _zone;
 
     /**
-     * Hashmap fileMap representing the files and blobs of this commit.
+     * Sha1 IDs of the parents of this commit, first parent first. Parents
+     * are resolved lazily through the repo's object store, so a commit file
+     * never holds more than its own metadata.
+     */
+    protected ArrayList<String> _parents;
+
+    /**
+     * Hashmap fileMap representing the files and blobs of this commit,
+     * or null if it has not been read from the trees.
      */
     protected HashMap<String, String> _fileMap;
 
     /**
-     * String of sha1 ID of this commit.
+     * ID of the tree of this commit's top directory, or null if it lists
+     * its files itself or has none.
      */
-    protected String _sha;
+    protected String _tree;
 
     /**
-     * String of the sha1 ID of this commit's parent.
+     * Gives the file map of a tree, for reading _fileMap on demand.
+     */
+    private Function<String, HashMap<String, String>> _trees;
+
+    /**
+     * String of sha1 ID of this commit.
      */
-    protected String _parentSha;
+    protected String _sha;
 
     /**
      * Returns true if this commit is a merge commit.
@@ -51,35 +76,33 @@ public class Commit implements Serializable {
     /** Commit.
      *
      * @param message msg
-     * @param parent p
-     * @param fileMap fm
+     * @param parent sha1 ID of the parent, or null for the initial commit
+     * @param tree ID of the top tree, or null if there are no files
+     * @param fileMap fm, the files under TREE
      * @param merge mrge  */
-    public Commit(String message, Commit parent,
+    public Commit(String message, String parent, String tree,
                   HashMap<String, String> fileMap, boolean merge) {
         this._message = message;
-        this._parent = parent;
+        this._parents = new ArrayList<>();
+        if (parent != null) {
+            _parents.add(parent);
+        }
+        this._tree = tree;
         this._fileMap = fileMap;
         this._merge = merge;
-        Date date;
         if (!message.equals("initial commit")) {
-            date = new Date();
-            _timestamp = getDate(date);
+            setDate(new Date());
         } else {
-            _timestamp = "Wed Dec 31 16:00:00 1969 -0800";
+            _time = 0;
+            _zone = "-0800";
+            _tree = null;
             _fileMap = new HashMap<>();
         }
-        List<Object> toSha = new ArrayList<Object>();
-        if (_parent == null) {
-            _parentSha = "imaGDI";
-        } else {
-            _parentSha = _parent.sha();
-        }
-        byte[] bytes = Utils.serialize(this);
-        toSha.add(bytes);
-        toSha.add(getMessage());
-        toSha.add(_parentSha);
-        toSha.add(timestamp());
-        _sha = Utils.sha1(toSha);
+        _sha = computeSha();
+    }
+
+    /** An empty commit, filled in by {@link #decode}. */
+    Commit() {
     }
 
 
@@ -87,23 +110,72 @@ public class Commit implements Serializable {
      * Return timestamp for this commit.
      */
     String timestamp() {
-        return _timestamp;
+        return timestamp(_time, _zone);
     }
 
     /**
-     * Return parent commit for this commit.
+     * Return the timestamp of a commit made TIME seconds after the epoch
+     * in time zone ZONE.
+     * @param time seconds since the epoch
+     * @param zone offset from UTC, such as -0800
      */
-    Commit parent() {
-        return _parent;
+    static String timestamp(long time, String zone) {
+        SimpleDateFormat format = (SimpleDateFormat) DATE_FORMAT.clone();
+        format.setTimeZone(TimeZone.getTimeZone("GMT" + zone));
+        return format.format(new Date(time * 1000));
     }
 
     /**
-     * Return timestamp for this commit.
+     * Return the time of this commit in seconds since the epoch.
+     */
+    long time() {
+        return _time;
+    }
+
+    /**
+     * Return the time zone of this commit, such as -0800.
+     */
+    String zone() {
+        return _zone;
+    }
+
+    /**
+     * Return the sha1 ID of the first parent of this commit, or null if
+     * this is the initial commit.
+     */
+    String parentSha() {
+        if (_parents.isEmpty()) {
+            return null;
+        }
+        return _parents.get(0);
+    }
+
+    /**
+     * Return the sha1 IDs of all parents of this commit.
+     */
+    List<String> parents() {
+        return _parents;
+    }
+
+    /**
+     * Return the files of this commit, a map from path to blob ID. The
+     * map must not be changed.
      */
     HashMap<String, String> getFileMap() {
+        if (_fileMap == null) {
+            return _trees.apply(_tree);
+        }
         return _fileMap;
     }
 
+    /**
+     * Return the ID of the top tree of this commit, or null if it has
+     * none.
+     */
+    String tree() {
+        return _tree;
+    }
+
     /**
      * Return timestamp for this commit.
      */
@@ -111,6 +183,22 @@ public class Commit implements Serializable {
         return _message;
     }
 
+    /**
+     * Return a rough estimate of the memory this commit occupies, in
+     * bytes.
+     */
+    long weight() {
+        long result = 128 + 2L * _message.length();
+        if (_fileMap == null) {
+            return result;
+        }
+        for (Map.Entry<String, String> e : _fileMap.entrySet()) {
+            result += 96 + 2L * (e.getKey().length()
+                    + e.getValue().length());
+        }
+        return result;
+    }
+
     /**
      * Return sha1 id for this commit.
      */
@@ -118,16 +206,127 @@ public class Commit implements Serializable {
         return _sha;
     }
 
+    /**
+     * Returns the sha1 ID of this commit, the hash of its canonical
+     * encoding.
+     */
+    protected String computeSha() {
+        return Utils.sha1(encode());
+    }
+
+    /**
+     * Returns the canonical encoding of this commit: a "tree" line unless
+     * it has no files (or, for commits without a tree, one "file" line
+     * per tracked file in name order), one "parent" line per parent, a
+     * "time" line, a blank line and then the message, all in UTF-8.
+     */
+    byte[] encode() {
+        StringBuilder out = new StringBuilder();
+        if (_tree != null) {
+            out.append("tree ").append(_tree).append('\n');
+        } else {
+            out.append(encodeFiles());
+        }
+        for (String parent : _parents) {
+            out.append("parent ").append(parent).append('\n');
+        }
+        out.append("time ").append(_time).append(' ').append(_zone)
+                .append("\n\n").append(_message);
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
     /**
-     * The date format.
+     * Returns the "file" lines of this commit's canonical encoding.
+     */
+    private String encodeFiles() {
+        StringBuilder out = new StringBuilder();
+        for (String name : new TreeMap<>(_fileMap).keySet()) {
+            out.append("file ").append(_fileMap.get(name)).append(' ')
+                    .append(name).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns the sha1 ID of this commit's file map alone, which is equal
+     * for any two commits with the same top tree.
+     */
+    String treeSha() {
+        if (_tree != null) {
+            return ObjectStore.key(_tree);
+        }
+        return Utils.sha1(encodeFiles());
+    }
+
+    /**
+     * Returns the commit with ID SHA whose canonical encoding is BYTES,
+     * whose file map is not available.
      *
-     * @param d date
+     * @param sha the commit ID
+     * @param bytes the encoded commit
+     */
+    static Commit decode(String sha, byte[] bytes) {
+        return decode(sha, bytes, t -> {
+            throw new IllegalStateException("trees not available");
+        });
+    }
+
+    /**
+     * Returns the commit with ID SHA whose canonical encoding is BYTES.
+     * Its file map is got from TREES, a function giving the file map of a
+     * tree ID, when asked for. Commits with more than one parent come back
+     * as MergeCommits.
      *
-     * @return String
+     * @param sha the commit ID
+     * @param bytes the encoded commit
+     * @param trees gives the file map of a tree
+     */
+    static Commit decode(String sha, byte[] bytes,
+                         Function<String, HashMap<String, String>> trees) {
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        int body = text.indexOf("\n\n");
+        if (body < 0) {
+            throw new GitletException("Corrupt commit " + sha + ".");
+        }
+        HashMap<String, String> fileMap = new HashMap<>();
+        String tree = null;
+        ArrayList<String> parents = new ArrayList<>();
+        long time = 0;
+        String zone = "+0000";
+        for (String line : text.substring(0, body).split("\n")) {
+            String[] parts = line.split(" ", 3);
+            if (parts[0].equals("file")) {
+                fileMap.put(parts[2], parts[1]);
+            } else if (parts[0].equals("tree")) {
+                tree = parts[1];
+            } else if (parts[0].equals("parent")) {
+                parents.add(parts[1]);
+            } else if (parts[0].equals("time")) {
+                time = Long.parseLong(parts[1]);
+                zone = parts[2];
+            }
+        }
+        Commit c = parents.size() > 1 ? new MergeCommit() : new Commit();
+        c._message = text.substring(body + 2);
+        c._tree = tree;
+        c._fileMap = tree == null ? fileMap : null;
+        c._trees = trees;
+        c._parents = parents;
+        c._time = time;
+        c._zone = zone;
+        c._merge = parents.size() > 1;
+        c._sha = sha;
+        return c;
+    }
+
+    /**
+     * Sets the author time of this commit to D in the local time zone.
+     *
+     * @param d date
      */
-    protected String getDate(Date d) {
-        return DATE_FORMAT.format(d);
+    protected void setDate(Date d) {
+        _time = d.getTime() / 1000;
+        _zone = new SimpleDateFormat("Z").format(d);
     }
 
     /**
@@ -0,0 +1,387 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The commit-graph file: one fixed-width record per commit, holding the
+ *  commit ID, the positions of its parents within the file, its
+ *  generation number, its commit time and the ID of its file map. The
+ *  file is memory-mapped, so history can be walked without reading or
+ *  decoding commit objects. Records are only ever appended, and a commit
+ *  is always appended after its parents.
+ *
+ *  Commits are found through a lookup file beside the graph, as in git's
+ *  OID fan-out and lookup chunks: the IDs of the first records, sorted,
+ *  each with its position, behind a 256-entry fan-out table, so that a
+ *  lookup is a binary search within the IDs sharing a first byte. The
+ *  few records appended since the lookup file was written are scanned
+ *  into memory once, and the lookup file is rewritten whenever they
+ *  number TAIL or more.
+ *
+ *  @author charlesellis
+ */
+class CommitGraph {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434750;
+    /** Length of the header. */
+    private static final int HEADER = 8;
+    /** Length of a binary sha1 ID. */
+    private static final int ID_BYTES = 20;
+    /** Offset of the first parent's position within a record. */
+    private static final int PARENT1 = ID_BYTES;
+    /** Offset of the second parent's position within a record. */
+    private static final int PARENT2 = PARENT1 + 4;
+    /** Offset of the generation number within a record. */
+    private static final int GENERATION = PARENT2 + 4;
+    /** Offset of the commit time within a record. */
+    private static final int TIME = GENERATION + 4;
+    /** Offset of the file map ID within a record. */
+    private static final int TREE = TIME + 8;
+    /** Length of one record. */
+    static final int RECORD = TREE + ID_BYTES;
+    /** Parent position meaning "no such parent". */
+    static final int NONE = -1;
+    /** Magic number at the start of the lookup file. */
+    private static final int LOOKUP_MAGIC = 0x4743494c;
+    /** Number of fan-out entries. */
+    private static final int FANOUT = 256;
+    /** Offset of the first lookup record. */
+    private static final int LOOKUP_HEADER = 8 + 4 * FANOUT;
+    /** Length of a lookup record: ID and position. */
+    private static final int LOOKUP_RECORD = ID_BYTES + 4;
+    /** Number of records not in the lookup file at which it is
+     *  rewritten. */
+    static final int TAIL =
+        Math.max(1, Integer.getInteger("gitlet.graph.tail", 256));
+
+    /** A commit graph stored in FILE.
+     * @param file the graph file, created on first append */
+    CommitGraph(File file) {
+        _file = file;
+        _lookupFile = new File(file.getPath() + ".idx");
+        _tail = new HashMap<>();
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        map();
+        return _size;
+    }
+
+    /** Returns the position of commit SHA in the graph, or NONE if it
+     *  has not been added.
+     * @param sha the commit ID */
+    int position(String sha) {
+        map();
+        Integer recent = _tail.get(sha);
+        if (recent != null) {
+            return recent;
+        }
+        if (_covered == 0) {
+            return NONE;
+        }
+        byte[] want = toBytes(sha);
+        int first = want[0] & 0xff;
+        int lo = first == 0 ? 0 : _lookup.getInt(8 + 4 * (first - 1));
+        int hi = _lookup.getInt(8 + 4 * first) - 1;
+        byte[] have = new byte[ID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            _lookup.get(lookupRecord(mid), have);
+            int cmp = Arrays.compareUnsigned(have, want);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return _lookup.getInt(lookupRecord(mid) + ID_BYTES);
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the commit ID at POS.
+     * @param pos position */
+    String id(int pos) {
+        byte[] have = new byte[ID_BYTES];
+        map();
+        _map.get(offset(pos), have);
+        return toHex(have);
+    }
+
+    /** Returns the positions of the parents of the commit at POS.
+     * @param pos position */
+    int[] parents(int pos) {
+        map();
+        int p1 = _map.getInt(offset(pos) + PARENT1);
+        int p2 = _map.getInt(offset(pos) + PARENT2);
+        if (p1 == NONE) {
+            return new int[0];
+        } else if (p2 == NONE) {
+            return new int[] {p1};
+        }
+        return new int[] {p1, p2};
+    }
+
+    /** Returns the generation number of the commit at POS: one more than
+     *  the largest generation of its parents, with root commits at 1.
+     * @param pos position */
+    int generation(int pos) {
+        map();
+        return _map.getInt(offset(pos) + GENERATION);
+    }
+
+    /** Returns the commit time, in seconds, of the commit at POS.
+     * @param pos position */
+    long time(int pos) {
+        map();
+        return _map.getLong(offset(pos) + TIME);
+    }
+
+    /** Returns the file map ID of the commit at POS.
+     * @param pos position */
+    String tree(int pos) {
+        byte[] have = new byte[ID_BYTES];
+        map();
+        _map.get(offset(pos) + TREE, have);
+        return toHex(have);
+    }
+
+    /** Appends COMM to the graph, first appending any of its ancestors
+     *  that are missing, reading them through REPO. Returns the position
+     *  of COMM.
+     * @param comm the commit
+     * @param repo the repo holding its ancestors */
+    int add(Commit comm, Repo repo) {
+        ArrayDeque<Commit> pending = new ArrayDeque<>();
+        pending.push(comm);
+        int result = NONE;
+        while (!pending.isEmpty()) {
+            Commit c = pending.peek();
+            int pos = position(c.sha());
+            if (pos != NONE) {
+                pending.pop();
+                result = pos;
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : c.parents()) {
+                if (position(parent) == NONE) {
+                    pending.push(repo.getCommit(parent));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                result = append(c);
+            }
+        }
+        map();
+        if (_size - _covered >= TAIL) {
+            writeLookup();
+        }
+        return result;
+    }
+
+    /** Appends the record for C, whose parents are all in the graph, and
+     *  returns its position.
+     * @param c the commit */
+    private int append(Commit c) {
+        int[] parents = {NONE, NONE};
+        int generation = 1;
+        for (int i = 0; i < c.parents().size() && i < 2; i += 1) {
+            parents[i] = position(c.parents().get(i));
+            generation = Math.max(generation, generation(parents[i]) + 1);
+        }
+        ByteBuffer rec = ByteBuffer.allocate(RECORD);
+        rec.put(toBytes(c.sha()));
+        rec.putInt(parents[0]).putInt(parents[1]).putInt(generation);
+        rec.putLong(c._time);
+        rec.put(toBytes(c.treeSha()));
+        rec.flip();
+        map();
+        int pos = _size;
+        try (FileChannel out = FileChannel.open(_file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            if (out.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(1).flip();
+                out.write(header);
+            }
+            out.write(rec);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        _map = null;
+        _tail.put(c.sha(), pos);
+        _scanned = pos + 1;
+        return pos;
+    }
+
+    /** Writes a lookup file covering every record, replacing the current
+     *  one atomically. */
+    private void writeLookup() {
+        byte[][] ids = new byte[_size][];
+        for (int pos = 0; pos < _size; pos += 1) {
+            ids[pos] = new byte[ID_BYTES + 4];
+            _map.get(offset(pos), ids[pos], 0, ID_BYTES);
+            ByteBuffer.wrap(ids[pos], ID_BYTES, 4).putInt(pos);
+        }
+        Arrays.sort(ids, (a, b) -> Arrays.compareUnsigned(a, 0, ID_BYTES,
+                                                          b, 0, ID_BYTES));
+        ByteBuffer buf = ByteBuffer.allocate(LOOKUP_HEADER
+                + LOOKUP_RECORD * _size);
+        buf.putInt(LOOKUP_MAGIC).putInt(1);
+        int[] fanout = new int[FANOUT];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int i = 0; i < FANOUT; i += 1) {
+            total += fanout[i];
+            buf.putInt(total);
+        }
+        for (byte[] id : ids) {
+            buf.put(id);
+        }
+        Utils.replaceContents(_lookupFile, buf.array());
+        _lookup = null;
+        _map = null;
+    }
+
+    /** Maps the graph file and its lookup file into memory if they are
+     *  not already mapped, and scans the records the lookup file does not
+     *  cover into _tail. */
+    private void map() {
+        if (_map != null) {
+            return;
+        }
+        _size = 0;
+        if (!_file.exists() || _file.length() < HEADER) {
+            _map = ByteBuffer.allocate(0);
+        } else {
+            _map = mapFile(_file, MAGIC, "Corrupt commit graph.");
+            _size = (_map.capacity() - HEADER) / RECORD;
+        }
+        if (_lookup == null) {
+            _covered = 0;
+            if (_lookupFile.exists()) {
+                _lookup = mapFile(_lookupFile, LOOKUP_MAGIC,
+                                  "Corrupt commit graph lookup.");
+                _covered = _lookup.getInt(8 + 4 * (FANOUT - 1));
+            }
+            if (_covered > _size || !covers(_covered - 1)) {
+                _covered = 0;
+            }
+            _tail.clear();
+            _scanned = _covered;
+        }
+        byte[] have = new byte[ID_BYTES];
+        for (; _scanned < _size; _scanned += 1) {
+            _map.get(offset(_scanned), have);
+            _tail.put(toHex(have), _scanned);
+        }
+    }
+
+    /** Returns true iff the record at POS is in the lookup file at its
+     *  position, or POS is negative: a check that the lookup file was
+     *  written for this graph file.
+     * @param pos position */
+    private boolean covers(int pos) {
+        if (pos < 0) {
+            return true;
+        }
+        byte[] have = new byte[ID_BYTES];
+        _map.get(offset(pos), have);
+        int first = have[0] & 0xff;
+        int lo = first == 0 ? 0 : _lookup.getInt(8 + 4 * (first - 1));
+        int hi = _lookup.getInt(8 + 4 * first);
+        byte[] id = new byte[ID_BYTES];
+        for (int rec = lo; rec < hi; rec += 1) {
+            _lookup.get(lookupRecord(rec), id);
+            if (Arrays.equals(id, have)) {
+                return _lookup.getInt(lookupRecord(rec) + ID_BYTES) == pos;
+            }
+        }
+        return false;
+    }
+
+    /** Returns FILE mapped into memory, checking that it starts with
+     *  MAGIC and throwing an exception with message CORRUPT if not.
+     * @param file the file
+     * @param magic its magic number
+     * @param corrupt message for a file with the wrong magic number */
+    private static ByteBuffer mapFile(File file, int magic, String corrupt) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer map =
+                in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (in.size() < 4 || map.getInt(0) != magic) {
+                throw new GitletException(corrupt);
+            }
+            return map;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Returns the byte offset of lookup record REC.
+     * @param rec record number */
+    private static int lookupRecord(int rec) {
+        return LOOKUP_HEADER + rec * LOOKUP_RECORD;
+    }
+
+    /** Returns the byte offset of the record at POS.
+     * @param pos position */
+    private static int offset(int pos) {
+        return HEADER + pos * RECORD;
+    }
+
+    /** Returns the 20 bytes denoted by the 40-digit hex ID SHA.
+     * @param sha hex ID */
+    static byte[] toBytes(String sha) {
+        byte[] result = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    sha.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns the hex form of the binary ID BYTES.
+     * @param bytes binary ID */
+    static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** The graph file. */
+    private File _file;
+    /** The mapped graph file, or null if it must be (re)mapped. */
+    private ByteBuffer _map;
+    /** Number of records in _map. */
+    private int _size;
+    /** The lookup file. */
+    private File _lookupFile;
+    /** The mapped lookup file, or null if it must be (re)mapped. */
+    private ByteBuffer _lookup;
+    /** Number of records, from the first, that the lookup file covers. */
+    private int _covered;
+    /** Records from _covered up to this have been scanned into _tail. */
+    private int _scanned;
+    /** Positions of the records not covered by the lookup file. */
+    private HashMap<String, Integer> _tail;
+}
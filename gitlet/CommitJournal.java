@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The commit journal: a record of every commit in the order they were
+ *  made, which global-log reads in one sequential pass instead of
+ *  opening and decoding each commit.
+ *
+ *  .gitlet/journal holds, after an 8-byte header, one fixed-size record
+ *  per commit: its ID and up to two parent IDs (zeros where absent), as
+ *  20 bytes each, its time in seconds, its 5-byte time zone, and the
+ *  offset and length of its message in .gitlet/journal-messages, which
+ *  holds the messages end to end. A message is written before the record
+ *  referring to it, so a partly written record at the end is ignored.
+ *
+ *  @author charlesellis
+ */
+class CommitJournal {
+
+    /** Magic number at the start of the journal. */
+    private static final int MAGIC = 0x474a4e4c;
+    /** Format version. */
+    private static final int VERSION = 1;
+    /** Length of a binary sha1 ID. */
+    private static final int ID_BYTES = 20;
+    /** Length of a time zone. */
+    private static final int ZONE_BYTES = 5;
+    /** Length of the header. */
+    private static final int HEADER = 8;
+    /** Length of a record. */
+    private static final int RECORD = 3 * ID_BYTES + 8 + ZONE_BYTES + 8 + 4;
+
+    /** A journal entry: one commit, without its files. */
+    static class Entry {
+        /** Commit ID. */
+        String _id;
+        /** Parent IDs, first parent first. */
+        List<String> _parents = new ArrayList<>();
+        /** Seconds since the epoch. */
+        long _time;
+        /** Time zone. */
+        String _zone;
+        /** Message. */
+        String _message;
+    }
+
+    /** Receives entries as they are read. */
+    interface Visitor {
+        /** Handles ENTRY.
+         * @param entry a journal entry */
+        void visit(Entry entry) throws IOException;
+    }
+
+    /** The journal of the repository whose .gitlet directory is GITFILE.
+     * @param gitFile the .gitlet directory */
+    CommitJournal(File gitFile) {
+        _records = Utils.join(gitFile, "journal");
+        _messages = Utils.join(gitFile, "journal-messages");
+    }
+
+    /** Returns true iff the journal exists, in which case it records
+     *  every commit. */
+    boolean exists() {
+        return _records.isFile();
+    }
+
+    /** Builds the journal afresh from COMMITS, in that order.
+     * @param commits every commit */
+    void build(List<Commit> commits) {
+        _records.delete();
+        _messages.delete();
+        File tmp = new File(_records.getPath() + ".tmp");
+        Utils.writeContents(tmp, header());
+        File records = _records;
+        _records = tmp;
+        for (Commit c : commits) {
+            append(c);
+        }
+        _records = records;
+        if (!tmp.renameTo(_records)) {
+            throw new GitletException("Cannot write commit journal.");
+        }
+    }
+
+    /** Adds commit C at the end of the journal.
+     * @param c the commit */
+    void append(Commit c) {
+        byte[] message = c.getMessage().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(CommitGraph.toBytes(c.sha()));
+            for (int i = 0; i < 2; i += 1) {
+                out.write(i < c.parents().size()
+                        ? CommitGraph.toBytes(c.parents().get(i))
+                        : new byte[ID_BYTES]);
+            }
+            out.writeLong(c.time());
+            out.write(String.format("%-5.5s", c.zone())
+                      .getBytes(StandardCharsets.US_ASCII));
+            out.writeLong(_messages.length());
+            out.writeInt(message.length);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        try {
+            Files.write(_messages.toPath(), message,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            Files.write(_records.toPath(), bytes.toByteArray(),
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Passes VISITOR the entries of the journal, oldest first, skipping
+     *  the first SKIP without reading them and stopping after LIMIT.
+     * @param skip entries skipped
+     * @param limit most entries visited
+     * @param visitor receives the entries */
+    void read(int skip, int limit, Visitor visitor) {
+        try (DataInputStream records = open(_records);
+             DataInputStream messages = open(_messages)) {
+            if (records.readInt() != MAGIC || records.readInt() != VERSION) {
+                throw new GitletException("Corrupt commit journal.");
+            }
+            long position = 0;
+            byte[] id = new byte[ID_BYTES];
+            byte[] zone = new byte[ZONE_BYTES];
+            byte[] record = new byte[RECORD];
+            records.skipNBytes(Math.min((long) skip * RECORD,
+                    _records.length() - HEADER));
+            for (int n = 0; n < limit; n += 1) {
+                try {
+                    records.readFully(record);
+                } catch (EOFException excp) {
+                    return;
+                }
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(record));
+                Entry e = new Entry();
+                in.readFully(id);
+                e._id = CommitGraph.toHex(id);
+                for (int i = 0; i < 2; i += 1) {
+                    in.readFully(id);
+                    if (!allZero(id)) {
+                        e._parents.add(CommitGraph.toHex(id));
+                    }
+                }
+                e._time = in.readLong();
+                in.readFully(zone);
+                e._zone = new String(zone, StandardCharsets.US_ASCII).trim();
+                long offset = in.readLong();
+                byte[] message = new byte[in.readInt()];
+                messages.skipNBytes(offset - position);
+                messages.readFully(message);
+                position = offset + message.length;
+                e._message = new String(message, StandardCharsets.UTF_8);
+                visitor.visit(e);
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Returns the journal header. */
+    private static byte[] header() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns a buffered stream reading F.
+     * @param f a file */
+    private static DataInputStream open(File f) throws IOException {
+        InputStream in = f.exists() ? Files.newInputStream(f.toPath())
+            : InputStream.nullInputStream();
+        return new DataInputStream(new BufferedInputStream(in,
+                Utils.BUFFER * 8));
+    }
+
+    /** Returns true iff every byte of B is 0.
+     * @param b bytes */
+    private static boolean allZero(byte[] b) {
+        for (byte x : b) {
+            if (x != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The record file. */
+    private File _records;
+    /** The message file. */
+    private File _messages;
+}
@@ -0,0 +1,415 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** The Gitlet daemon, started by "gitlet daemon", which runs commands
+ *  sent by Main over a Unix-domain socket, keeping each repository it
+ *  has used, with its caches, in memory between commands. Commands are
+ *  run one at a time.
+ *
+ *  A client sends its working directory, the number of arguments and the
+ *  arguments, and receives frames: OUT or ERR followed by a length, at
+ *  most MAX_FRAME, and that many bytes of output, and finally EXIT
+ *  followed by the exit status. Each side checks the lengths it reads
+ *  before allocating anything for them. A malformed request, or a
+ *  command that fails with an unexpected exception or error, is
+ *  reported to its client alone, and the daemon goes on serving others.
+ *
+ *  A repository is read afresh from disk whenever its stamp shows that
+ *  another process has changed it since the daemon last used it, and
+ *  dropped after a command fails, since it may then differ from what is
+ *  on disk. The estimated size of the repositories kept is bounded by
+ *  the system property gitlet.daemon.memory (megabytes, default 256),
+ *  least recently used first, and a repository unused for
+ *  gitlet.daemon.idle seconds (default 600) is dropped. The socket is
+ *  the file named by gitlet.socket, by default daemon.sock in the
+ *  directory gitlet under $XDG_RUNTIME_DIR, or under ~/.cache if that is
+ *  not set. The daemon creates that directory readable by its owner
+ *  only, and neither it nor a client uses a socket whose directory is
+ *  not owned by the user and closed to everyone else, or that the user
+ *  does not own, so that another user cannot stand in for the daemon.
+ *  "gitlet daemon stop" stops the daemon.
+ *
+ *  @author charlesellis
+ */
+class Daemon {
+
+    /** The socket file. */
+    static final File SOCKET = new File(System.getProperty("gitlet.socket",
+            Utils.join(System.getenv("XDG_RUNTIME_DIR") != null
+                       ? new File(System.getenv("XDG_RUNTIME_DIR"))
+                       : Utils.join(System.getProperty("user.home"),
+                                    ".cache"),
+                       "gitlet", "daemon.sock").getPath()));
+    /** Bound on the estimated size of the repositories kept, in bytes. */
+    static final long BUDGET =
+        Integer.getInteger("gitlet.daemon.memory", 256) * (1L << 20);
+    /** Milliseconds after which an unused repository is dropped. */
+    static final long IDLE =
+        Integer.getInteger("gitlet.daemon.idle", 600) * 1000L;
+
+    /** Frame type of the exit status. */
+    private static final int EXIT = 0;
+    /** Frame type of standard output. */
+    private static final int OUT = 1;
+    /** Frame type of standard error. */
+    private static final int ERR = 2;
+    /** Largest number of bytes of output in one frame. */
+    private static final int MAX_FRAME = 1 << 16;
+    /** Largest number of arguments in a request. */
+    private static final int MAX_ARGS = 1 << 12;
+
+    /** Sends the command ARGS, run in working directory DIR, to the
+     *  daemon, copying its output to System.out and System.err, and
+     *  returns its exit status. Returns -1 without doing anything if no
+     *  daemon is listening.
+     * @param args the command and its operands
+     * @param dir the working directory */
+    static int forward(String[] args, File dir) {
+        if (!SOCKET.exists()) {
+            return -1;
+        }
+        if (!trusted(SOCKET.getParentFile(), true)
+                || !trusted(SOCKET, false)) {
+            System.err.println("Ignoring " + SOCKET
+                    + ": not private to this user.");
+            return -1;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException | UnsupportedOperationException excp) {
+            return -1;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeUTF(dir.getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), Utils.BUFFER));
+            while (true) {
+                int type = in.readUnsignedByte();
+                if (type == EXIT) {
+                    return in.readInt();
+                }
+                int length = in.readInt();
+                if ((type != OUT && type != ERR) || length < 0
+                    || length > MAX_FRAME) {
+                    throw new IOException("malformed reply");
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                (type == ERR ? System.err : System.out).write(data);
+            }
+        } catch (IOException excp) {
+            System.err.println("Lost connection to the daemon: "
+                    + excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Serves commands until told to stop. */
+    void run() {
+        if (forward(new String[] {"daemon", "ping"}, new File(".")) >= 0) {
+            throw new GitletException("A daemon is already running.");
+        }
+        privateDirectory(SOCKET.getParentFile());
+        SOCKET.delete();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            if (posix()) {
+                Files.setPosixFilePermissions(SOCKET.toPath(),
+                        PosixFilePermissions.fromString("rw-------"));
+            }
+            Thread reaper = new Thread(this::reap, "gitlet-reaper");
+            reaper.setDaemon(true);
+            reaper.start();
+            while (!_stopping) {
+                try (SocketChannel client = server.accept()) {
+                    serve(client);
+                } catch (IOException | RuntimeException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Creates DIR, if need be, readable by its owner only, and checks
+     *  that it is private to this user.
+     * @param dir the socket's directory */
+    private static void privateDirectory(File dir) {
+        try {
+            if (!dir.exists() && posix()) {
+                Files.createDirectories(dir.toPath(),
+                        PosixFilePermissions.asFileAttribute(
+                            PosixFilePermissions.fromString("rwx------")));
+            } else {
+                dir.mkdirs();
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        if (!trusted(dir, true)) {
+            throw new GitletException(dir + " is not private to this user.");
+        }
+    }
+
+    /** Returns true iff FILE is owned by this user and is not a symbolic
+     *  link, and, if CLOSED, is closed to the group and others. Always
+     *  true where the file system has no POSIX owners.
+     * @param file a file
+     * @param closed whether FILE must be closed to others */
+    private static boolean trusted(File file, boolean closed) {
+        if (!posix()) {
+            return true;
+        }
+        try {
+            PosixFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            UserPrincipal me = FileSystems.getDefault()
+                .getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+            if (attrs.isSymbolicLink() || !attrs.owner().equals(me)) {
+                return false;
+            }
+            if (closed) {
+                for (PosixFilePermission perm : attrs.permissions()) {
+                    if (!perm.name().startsWith("OWNER_")) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Returns true iff the default file system has POSIX attributes. */
+    private static boolean posix() {
+        return FileSystems.getDefault().supportedFileAttributeViews()
+            .contains("posix");
+    }
+
+    /** Reads one command from CLIENT, runs it and sends back its output
+     *  and exit status, or an error and status 1 if the request is
+     *  malformed or the command fails unexpectedly.
+     * @param client a connected client */
+    private void serve(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client), Utils.BUFFER));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), Utils.BUFFER));
+        File dir = new File(in.readUTF());
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ARGS) {
+            byte[] msg = "Malformed request.\n".getBytes();
+            new Frames(out, ERR).write(msg, 0, msg.length);
+            out.writeByte(EXIT);
+            out.writeInt(1);
+            out.flush();
+            return;
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream clientOut = new PrintStream(new BufferedOutputStream(
+                new Frames(out, OUT), Utils.BUFFER));
+        PrintStream clientErr = new PrintStream(new BufferedOutputStream(
+                new Frames(out, ERR), Utils.BUFFER));
+        int status;
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            status = execute(args, dir);
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            clientOut.flush();
+            clientErr.flush();
+        }
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /** Runs the command ARGS in DIR, with the daemon's copy of the
+     *  repository there if it is still current, and returns its exit
+     *  status.
+     * @param args the command and its operands
+     * @param dir the working directory */
+    private int execute(String[] args, File dir) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            _stopping = args.length > 1 && args[1].equals("stop");
+            return 0;
+        }
+        File key = dir.getAbsoluteFile();
+        Context context;
+        synchronized (_repos) {
+            context = _repos.remove(key);
+        }
+        Repo repo = null;
+        if (context != null
+                && Arrays.equals(context._stamp, context._repo.stamp())) {
+            repo = context._repo;
+        }
+        try {
+            if (args.length > 0 && args[0].equals("fsmonitor")) {
+                throw new GitletException("Run fsmonitor without the "
+                        + "daemon.");
+            }
+            repo = Main.execute(args, key, repo);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            return 0;
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            return 1;
+        }
+        if (repo != null) {
+            keep(new Context(repo, repo.stamp()), key);
+        }
+        return 0;
+    }
+
+    /** Keeps CONTEXT as the repository in DIR, dropping the least recently
+     *  used repositories while over budget.
+     * @param context the repository and its stamp
+     * @param dir its working directory */
+    private void keep(Context context, File dir) {
+        synchronized (_repos) {
+            _repos.put(dir, context);
+            long total = 0;
+            for (Context c : _repos.values()) {
+                total += c._size;
+            }
+            Iterator<Context> lru = _repos.values().iterator();
+            while (total > BUDGET && lru.hasNext()) {
+                total -= lru.next()._size;
+                lru.remove();
+            }
+        }
+    }
+
+    /** Drops idle repositories every so often, for as long as the daemon
+     *  runs. */
+    private void reap() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(1000, IDLE / 4));
+            } catch (InterruptedException excp) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            synchronized (_repos) {
+                _repos.values().removeIf(c -> now - c._used > IDLE);
+            }
+        }
+    }
+
+    /** A repository kept between commands. */
+    private static class Context {
+        /** REPO, whose stamp was STAMP when last read or written.
+         * @param repo the repository
+         * @param stamp its stamp */
+        Context(Repo repo, long[] stamp) {
+            _repo = repo;
+            _stamp = stamp;
+            _size = repo.footprint();
+            _used = System.currentTimeMillis();
+        }
+
+        /** The repository. */
+        private final Repo _repo;
+        /** Its stamp. */
+        private final long[] _stamp;
+        /** Its estimated size in bytes. */
+        private final long _size;
+        /** When it was last used. */
+        private final long _used;
+    }
+
+    /** Output sent to a client as frames of one type. */
+    private static class Frames extends OutputStream {
+        /** Frames of type TYPE written to OUT.
+         * @param out the client connection
+         * @param type the frame type */
+        Frames(DataOutputStream out, int type) {
+            _out = out;
+            _type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, MAX_FRAME);
+                _out.writeByte(_type);
+                _out.writeInt(n);
+                _out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** The client connection. */
+        private final DataOutputStream _out;
+        /** The frame type. */
+        private final int _type;
+    }
+
+    /** Repositories kept, by working directory, least recently used
+     *  first. */
+    private final LinkedHashMap<File, Context> _repos =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** True once told to stop. */
+    private volatile boolean _stopping;
+}
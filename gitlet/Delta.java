@@ -0,0 +1,153 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of an object. A delta is the
+ *  length of the base, the length of the result, and then a sequence of
+ *  instructions, each either copying a range of the base or inserting
+ *  literal bytes.
+ *
+ *  @author charlesellis
+ */
+class Delta {
+
+    /** Instruction code for inserting literal bytes. */
+    private static final int INSERT = 0;
+    /** Instruction code for copying a range of the base. */
+    private static final int COPY = 1;
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Returns a delta that turns BASE into TARGET.
+     * @param base the base object
+     * @param target the object to encode */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, base.length);
+        writeInt(out, target.length);
+        int literal = 0;
+        int i = 0;
+        while (i < target.length) {
+            Integer start = null;
+            if (i + BLOCK <= target.length) {
+                start = blocks.get(hash(target, i));
+            }
+            if (start == null || !Arrays.equals(base, start, start + BLOCK,
+                    target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int len = BLOCK;
+            while (start + len < base.length && i + len < target.length
+                    && base[start + len] == target[i + len]) {
+                len += 1;
+            }
+            while (start > 0 && i > literal
+                    && base[start - 1] == target[i - 1]) {
+                start -= 1;
+                i -= 1;
+                len += 1;
+            }
+            insert(out, target, literal, i);
+            out.write(COPY);
+            writeInt(out, start);
+            writeInt(out, len);
+            i += len;
+            literal = i;
+        }
+        insert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE.
+     * @param base the base object
+     * @param delta a delta created against BASE */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readInt(delta, pos) != base.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        byte[] result = new byte[readInt(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int start = readInt(delta, pos);
+                int len = readInt(delta, pos);
+                System.arraycopy(base, start, result, n, len);
+                n += len;
+            } else {
+                int len = readInt(delta, pos);
+                System.arraycopy(delta, pos[0], result, n, len);
+                pos[0] += len;
+                n += len;
+            }
+        }
+        if (n != result.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes an instruction to OUT inserting BYTES[FROM..TO), if that
+     *  range is not empty.
+     * @param out the delta
+     * @param bytes the target
+     * @param from start of the range
+     * @param to end of the range */
+    private static void insert(ByteArrayOutputStream out, byte[] bytes,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeInt(out, to - from);
+            out.write(bytes, from, to - from);
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at START.
+     * @param data the bytes
+     * @param start the offset */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative VAL to OUT as a variable-length integer,
+     *  seven bits per byte, least significant first.
+     * @param out the stream
+     * @param val the value */
+    private static void writeInt(ByteArrayOutputStream out, int val) {
+        while (val >= 0x80) {
+            out.write((val & 0x7f) | 0x80);
+            val >>>= 7;
+        }
+        out.write(val);
+    }
+
+    /** Returns the variable-length integer in DATA at POS[0], advancing
+     *  POS[0] past it.
+     * @param data the bytes
+     * @param pos the read position */
+    private static int readInt(byte[] data, int[] pos) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b >= 0x80);
+        return result;
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Prints the differences between two versions of a set of files on the
+ *  standard output, through one buffered writer, as each file's are
+ *  found, so that only the two versions of the file being compared are
+ *  held at once. File contents are written byte for byte, whatever their
+ *  encoding. As in git, a file is taken to be binary if its first PROBE
+ *  bytes hold a NUL byte. Only files of at most LIMIT bytes are read
+ *  whole and compared line by line; larger ones are only said to differ,
+ *  so the memory used stays bounded whatever the files' sizes.
+ *
+ *  @author charlesellis
+ */
+class DiffPrinter {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+    /** Number of leading bytes searched for a NUL byte. */
+    static final int PROBE = 8000;
+    /** Largest file compared line by line, in bytes: the value of the
+     *  system property gitlet.diff.limit, in megabytes, by default 8. */
+    static final int LIMIT =
+        Math.max(1, Integer.getInteger("gitlet.diff.limit", 8)) << 20;
+
+    /** A printer writing to the standard output. */
+    DiffPrinter() {
+        _out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out,
+                                       StandardCharsets.ISO_8859_1),
+                Utils.BUFFER));
+    }
+
+    /** Prints the paths in CHANGES, a map from path to the new blob ID,
+     *  or null for a deleted file, one per line.
+     * @param changes the changed paths */
+    void names(Map<String, String> changes) {
+        for (String path : changes.keySet()) {
+            _out.println(raw(path));
+        }
+    }
+
+    /** Prints a line for each path in CHANGES, a map from path to the new
+     *  blob ID, or null for a deleted file, saying whether it was added,
+     *  modified or deleted, given the old blob IDs OLD, then the number
+     *  of files changed.
+     * @param changes the changed paths
+     * @param old the old blob IDs, by path */
+    void stat(Map<String, String> changes, Map<String, String> old) {
+        int width = 0;
+        for (String path : changes.keySet()) {
+            width = Math.max(width, raw(path).length());
+        }
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String kind = e.getValue() == null ? "deleted"
+                : old.containsKey(e.getKey()) ? "modified" : "added";
+            _out.printf(" %-" + width + "s | %s%n", raw(e.getKey()), kind);
+        }
+        _out.printf(" %d file%s changed%n", changes.size(),
+                    changes.size() == 1 ? "" : "s");
+    }
+
+    /** Prints a unified diff of file PATH from contents FROM to contents
+     *  TO, either of which is null if the file is absent. Each holds at
+     *  most LIMIT + 1 bytes, as read by the caller: a file that fills
+     *  that is too large to compare, and is only said to differ.
+     * @param path the file's path
+     * @param from the old contents, or null
+     * @param to the new contents, or null */
+    void unified(String path, byte[] from, byte[] to) {
+        String a = from == null ? "/dev/null" : "a/" + raw(path);
+        String b = to == null ? "/dev/null" : "b/" + raw(path);
+        _out.println("diff --git a/" + raw(path) + " b/" + raw(path));
+        if (LineDiff.binary(from, PROBE) || LineDiff.binary(to, PROBE)) {
+            _out.println("Binary files " + a + " and " + b + " differ");
+            return;
+        }
+        if ((from != null && from.length > LIMIT)
+            || (to != null && to.length > LIMIT)) {
+            _out.println("Files " + a + " and " + b + " differ; larger"
+                         + " than " + (LIMIT >> 20) + " MB, not compared");
+            return;
+        }
+        _out.println("--- " + a);
+        _out.println("+++ " + b);
+        List<String> x = LineDiff.lines(from == null ? new byte[0] : from);
+        List<String> y = LineDiff.lines(to == null ? new byte[0] : to);
+        LineDiff.Interner lines = new LineDiff.Interner();
+        int[] xs = lines.intern(x);
+        int[] ys = lines.intern(y);
+        List<int[]> changes = changes(LineDiff.match(xs, ys, lines.size()),
+                                      y.size());
+        for (int k = 0; k < changes.size();) {
+            int last = k;
+            while (last + 1 < changes.size()
+                   && changes.get(last + 1)[0] - changes.get(last)[1]
+                      <= 2 * CONTEXT) {
+                last += 1;
+            }
+            hunk(x, y, changes.subList(k, last + 1));
+            k = last + 1;
+        }
+    }
+
+    /** Flushes the output. */
+    void flush() {
+        _out.flush();
+    }
+
+    /** Returns the changes described by MATCH, the index in the new lines
+     *  matched to each old line, or -1, where there are N new lines: a
+     *  list of {i0, i1, j0, j1}, each saying that old lines i0..i1-1
+     *  became new lines j0..j1-1.
+     * @param match the matched lines
+     * @param n number of new lines */
+    private static List<int[]> changes(int[] match, int n) {
+        ArrayList<int[]> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < match.length || j < n) {
+            if (i < match.length && match[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i;
+            while (i < match.length && match[i] < 0) {
+                i += 1;
+            }
+            int j1 = i < match.length ? match[i] : n;
+            result.add(new int[] {i0, i, j, j1});
+            j = j1;
+        }
+        return result;
+    }
+
+    /** Prints one hunk, holding CHANGES, as returned by changes, between
+     *  old lines X and new lines Y, with its context.
+     * @param x old lines
+     * @param y new lines
+     * @param changes the changes in the hunk */
+    private void hunk(List<String> x, List<String> y, List<int[]> changes) {
+        int[] first = changes.get(0);
+        int[] last = changes.get(changes.size() - 1);
+        int a0 = Math.max(0, first[0] - CONTEXT);
+        int b0 = first[2] - (first[0] - a0);
+        int a1 = Math.min(x.size(), last[1] + CONTEXT);
+        int b1 = last[3] + (a1 - last[1]);
+        _out.println("@@ -" + range(a0, a1 - a0) + " +" + range(b0, b1 - b0)
+                     + " @@");
+        int i = a0;
+        for (int[] c : changes) {
+            lines(' ', x, i, c[0]);
+            lines('-', x, c[0], c[1]);
+            lines('+', y, c[2], c[3]);
+            i = c[1];
+        }
+        lines(' ', x, i, a1);
+    }
+
+    /** Prints LINES FROM..TO-1, each preceded by PREFIX.
+     * @param prefix ' ', '-' or '+'
+     * @param lines lines
+     * @param from first index
+     * @param to index after the last */
+    private void lines(char prefix, List<String> lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            String line = lines.get(i);
+            _out.print(prefix);
+            _out.print(line);
+            if (!line.endsWith("\n")) {
+                _out.print("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Returns the hunk range of COUNT lines from 0-based line START.
+     * @param start first line
+     * @param count number of lines */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Returns PATH as it is to be written: one character per byte of its
+     *  UTF-8 encoding.
+     * @param path a path */
+    private static String raw(String path) {
+        return new String(path.getBytes(StandardCharsets.UTF_8),
+                          StandardCharsets.ISO_8859_1);
+    }
+
+    /** The output. */
+    private final PrintWriter _out;
+}
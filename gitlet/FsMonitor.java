@@ -0,0 +1,337 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** The file-system monitor: a long-running watcher over the working
+ *  directory, started by "gitlet fsmonitor", and the queries other
+ *  commands make of it.
+ *
+ *  The monitor watches the working directory and every subdirectory
+ *  but .gitlet, numbers the changes it sees and keeps, in
+ *  .gitlet/fsmonitor, the number of the latest change to each
+ *  '/'-separated path. A change to a directory's path, such as its
+ *  creation or deletion, may stand for changes to any file under it.
+ *  A token "SESSION:N" names the state after change N of one run of
+ *  the monitor; the files changed since a token are those whose latest
+ *  change is numbered above N. When the watch service overflows
+ *  and changes may have been lost, the monitor starts a new session, so
+ *  that every older token is refused.
+ *
+ *  A query first checks that a monitor holds .gitlet/fsmonitor.lock,
+ *  then creates a cookie file in .gitlet/fsmonitor-cookies and waits
+ *  for the monitor to delete it. The monitor does so only after
+ *  recording every event it received before the cookie's, so the answer
+ *  covers every change made before the query began.
+ *
+ *  @author charlesellis
+ */
+class FsMonitor {
+
+    /** Milliseconds a query waits for the monitor to answer a cookie
+     *  before giving up on it. */
+    static final int TIMEOUT =
+        Integer.getInteger("gitlet.fsmonitor.timeout", 1000);
+
+    /** A monitor of the working directory DIR of the repository whose
+     *  .gitlet directory is GITFILE.
+     * @param dir the working directory
+     * @param gitFile the .gitlet directory */
+    FsMonitor(File dir, File gitFile) {
+        _dir = dir;
+        _state = Utils.join(gitFile, "fsmonitor");
+        _lock = Utils.join(gitFile, "fsmonitor.lock");
+        _cookies = Utils.join(gitFile, "fsmonitor-cookies");
+    }
+
+    /** Watches the working directory until it or the repository goes
+     *  away. */
+    void run() {
+        _cookies.mkdirs();
+        try (FileChannel lockChannel = FileChannel.open(_lock.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock();
+             WatchService watcher =
+                 FileSystems.getDefault().newWatchService()) {
+            if (lock == null) {
+                throw new GitletException("A file-system monitor is "
+                        + "already running.");
+            }
+            try {
+                watch(watcher);
+            } finally {
+                _state.delete();
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Records the changes WATCHER reports until the working directory
+     *  or the repository goes away. Events are taken in batches, and the
+     *  state file is rewritten and the cookies seen answered once per
+     *  batch.
+     * @param watcher a fresh watch service */
+    private void watch(WatchService watcher)
+        throws IOException, InterruptedException {
+        WatchKey dirKey = register(watcher, _dir, "");
+        WatchKey cookieKey = _cookies.toPath().register(watcher,
+                ENTRY_CREATE);
+        newSession();
+        save();
+        while (true) {
+            ArrayList<File> cookies = new ArrayList<>();
+            for (WatchKey key = watcher.take(); key != null;
+                 key = watcher.poll()) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        newSession();
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (key == cookieKey) {
+                        cookies.add(Utils.join(_cookies, name));
+                        continue;
+                    }
+                    String path = _paths.get(key) + name;
+                    if (path.equals(".gitlet")) {
+                        continue;
+                    }
+                    _seq += 1;
+                    _changed.put(path, _seq);
+                    File f = Utils.join(_dir, path);
+                    if (event.kind() == ENTRY_CREATE && f.isDirectory()) {
+                        register(watcher, f, path + "/");
+                    }
+                }
+                if (!key.reset()) {
+                    if (key == dirKey || key == cookieKey) {
+                        return;
+                    }
+                    _paths.remove(key);
+                }
+            }
+            if (!dirKey.isValid() || !_cookies.isDirectory()) {
+                return;
+            }
+            save();
+            for (File cookie : cookies) {
+                cookie.delete();
+            }
+        }
+    }
+
+    /** Registers directory DIR, whose path is PREFIX less its trailing
+     *  '/', and its subdirectories other than .gitlet with WATCHER, and
+     *  returns DIR's key. Files already in a newly made directory are
+     *  recorded as changed, since their creation was not seen.
+     * @param watcher the watch service
+     * @param dir a directory
+     * @param prefix the path of DIR followed by '/', or empty for the
+     *               working directory */
+    private WatchKey register(WatchService watcher, File dir, String prefix)
+        throws IOException {
+        WatchKey key = dir.toPath().register(watcher,
+                ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        _paths.put(key, prefix);
+        String[] names = dir.list();
+        if (names == null) {
+            return key;
+        }
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (!prefix.isEmpty()) {
+                _seq += 1;
+                _changed.put(prefix + name, _seq);
+            }
+            if (f.isDirectory() && !(prefix + name).equals(".gitlet")) {
+                register(watcher, f, prefix + name + "/");
+            }
+        }
+        return key;
+    }
+
+    /** Returns the changes to the working directory of the repository
+     *  whose .gitlet directory is GITFILE since token SINCE, which may be
+     *  null. The result's names are null if no monitor is running or it
+     *  cannot say what has changed.
+     * @param gitFile the .gitlet directory
+     * @param since the token of an earlier query */
+    static Changes query(File gitFile, String since) {
+        FsMonitor monitor = new FsMonitor(null, gitFile);
+        if (!monitor.running() || !monitor.sync()) {
+            return new Changes(null, null);
+        }
+        String[] lines;
+        try {
+            lines = new String(Files.readAllBytes(monitor._state.toPath()),
+                    StandardCharsets.UTF_8).split("\n");
+        } catch (IOException excp) {
+            return new Changes(null, null);
+        }
+        String[] header = lines[0].split(" ");
+        String token = header[0] + ":" + header[1];
+        if (since == null || !since.startsWith(header[0] + ":")) {
+            return new Changes(token, null);
+        }
+        long sinceSeq = Long.parseLong(since.substring(header[0].length()
+                    + 1));
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 1; i < lines.length; i += 1) {
+            String[] entry = lines[i].split(" ", 2);
+            if (Long.parseLong(entry[0]) > sinceSeq) {
+                names.add(entry[1]);
+            }
+        }
+        return new Changes(token, names);
+    }
+
+    /** Changes reported by a query. */
+    static class Changes {
+        /** Changes NAMES up to TOKEN.
+         * @param token the monitor's token, or null
+         * @param names the changed file names, or null if unknown */
+        Changes(String token, TreeSet<String> names) {
+            _token = token;
+            _names = names;
+        }
+
+        /** Returns the token naming the state of the working directory
+         *  these changes lead up to, or null if there is none. */
+        String token() {
+            return _token;
+        }
+
+        /** Returns the names of the files that may have changed, or null
+         *  if any file may have. */
+        TreeSet<String> names() {
+            return _names;
+        }
+
+        /** Returns true iff the file whose path is NAME may have changed:
+         *  if any file may have, or if NAME or one of the directories
+         *  holding it is among the changed names.
+         * @param name a '/'-separated path */
+        boolean changed(String name) {
+            if (_names == null) {
+                return true;
+            }
+            for (int i = name.length(); i > 0;
+                 i = name.lastIndexOf('/', i - 1)) {
+                if (_names.contains(name.substring(0, i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The monitor's token. */
+        private final String _token;
+        /** The changed file names. */
+        private final TreeSet<String> _names;
+    }
+
+    /** Returns true iff a monitor holds the lock file. */
+    private boolean running() {
+        if (!_lock.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(_lock.toPath(),
+                 StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock == null;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Creates a cookie and waits for the monitor to delete it, returning
+     *  false if it has not done so within TIMEOUT milliseconds. */
+    private boolean sync() {
+        File cookie = Utils.join(_cookies, Long.toString(System.nanoTime()));
+        try {
+            Files.createFile(cookie.toPath());
+        } catch (IOException excp) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        try {
+            while (cookie.exists()) {
+                if (System.currentTimeMillis() > deadline) {
+                    cookie.delete();
+                    return false;
+                }
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException excp) {
+            cookie.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /** Forgets all changes seen so far and starts a new session. */
+    private void newSession() {
+        _session = Long.toString(System.currentTimeMillis(), 36)
+            + Long.toString(System.nanoTime() & 0xffffff, 36);
+        _seq = 0;
+        _changed.clear();
+    }
+
+    /** Writes the session, latest change number and changed files to the
+     *  state file, replacing it atomically. */
+    private void save() throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append(_session).append(' ').append(_seq).append('\n');
+        for (Map.Entry<String, Long> entry : _changed.entrySet()) {
+            out.append(entry.getValue()).append(' ').append(entry.getKey())
+                .append('\n');
+        }
+        File tmp = new File(_state.getPath() + ".tmp");
+        Files.write(tmp.toPath(), out.toString()
+                .getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), _state.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** The working directory. */
+    private File _dir;
+    /** The state file. */
+    private File _state;
+    /** The lock file, locked while a monitor runs. */
+    private File _lock;
+    /** Directory of query cookies. */
+    private File _cookies;
+    /** Current session. */
+    private String _session;
+    /** Number of the latest change. */
+    private long _seq;
+    /** Number of the latest change to each file name. */
+    private TreeMap<String, Long> _changed = new TreeMap<>();
+    /** Path of the directory of each watch key, with a trailing '/',
+     *  empty for the working directory. */
+    private HashMap<WatchKey, String> _paths = new HashMap<>();
+}
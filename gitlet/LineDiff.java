@@ -0,0 +1,387 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line diffs. Lines are interned to small integers, so that comparing
+ *  two lines costs one integer comparison whatever their length, and
+ *  matched with Myers' O((N+M)D) algorithm in its linear-space form,
+ *  which finds a middle snake and divides the problem there.
+ *
+ *  Before the search, lines occurring on only one side are set aside,
+ *  since they cannot match, and common leading and trailing lines are
+ *  matched directly. If the search for a middle snake runs past a limit
+ *  of about the square root of the input size in edit steps, the
+ *  furthest-reaching diagonal found so far is used instead, as in GNU
+ *  diff and git: the result is then a correct but not necessarily
+ *  minimal diff, and the worst-case time stays close to linear in the
+ *  input size times that limit.
+ *
+ *  @author charlesellis
+ */
+class LineDiff {
+
+    /** Returns the lines of TEXT, each with its newline if it has one,
+     *  as strings holding one character per byte.
+     * @param text file contents */
+    static List<String> lines(byte[] text) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n') {
+                result.add(new String(text, start, i + 1 - start,
+                                      StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length) {
+            result.add(new String(text, start, text.length - start,
+                                  StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+    /** Returns the bytes of LINES, as returned by lines, from FROM to TO,
+     *  appended to OUT.
+     * @param lines lines
+     * @param from first index
+     * @param to index after the last
+     * @param out the buffer to append to */
+    static StringBuilder append(List<String> lines, int from, int to,
+                                StringBuilder out) {
+        for (int i = from; i < to; i += 1) {
+            out.append(lines.get(i));
+        }
+        return out;
+    }
+
+    /** Returns the bytes in OUT, built from lines.
+     * @param out lines appended together */
+    static byte[] bytes(CharSequence out) {
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns true iff CONTENTS is not null and contains a NUL byte,
+     *  the sign of a binary file.
+     * @param contents file contents, or null */
+    static boolean binary(byte[] contents) {
+        return binary(contents, Integer.MAX_VALUE);
+    }
+
+    /** Returns true iff CONTENTS is not null and contains a NUL byte
+     *  among its first LENGTH bytes.
+     * @param contents file contents, or null
+     * @param length number of leading bytes searched */
+    static boolean binary(byte[] contents, int length) {
+        if (contents != null) {
+            int n = Math.min(length, contents.length);
+            for (int i = 0; i < n; i += 1) {
+                if (contents[i] == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Assigns small integers to distinct lines. */
+    static class Interner {
+        /** Returns the numbers of LINES, equal for equal lines.
+         * @param lines lines */
+        int[] intern(List<String> lines) {
+            int[] result = new int[lines.size()];
+            for (int i = 0; i < result.length; i += 1) {
+                Integer id = _ids.putIfAbsent(lines.get(i), _ids.size());
+                result[i] = id == null ? _ids.size() - 1 : id;
+            }
+            return result;
+        }
+
+        /** Returns the number of distinct lines seen. */
+        int size() {
+            return _ids.size();
+        }
+
+        /** Number of each distinct line. */
+        private final HashMap<String, Integer> _ids = new HashMap<>();
+    }
+
+    /** Returns a longest (or, for very different inputs, a long) common
+     *  subsequence of A and B as an array giving, for each index of A,
+     *  the index of B matched to it, or -1. Matched indices increase.
+     *  A and B hold interned lines numbered below SIZE.
+     * @param a interned lines
+     * @param b interned lines
+     * @param size bound on the line numbers */
+    static int[] match(int[] a, int[] b, int size) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        int lo = 0;
+        int aHi = a.length;
+        int bHi = b.length;
+        while (lo < aHi && lo < bHi && a[lo] == b[lo]) {
+            result[lo] = lo;
+            lo += 1;
+        }
+        while (aHi > lo && bHi > lo && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            result[aHi] = bHi;
+        }
+        boolean[] inA = new boolean[size];
+        boolean[] inB = new boolean[size];
+        for (int i = lo; i < aHi; i += 1) {
+            inA[a[i]] = true;
+        }
+        for (int j = lo; j < bHi; j += 1) {
+            inB[b[j]] = true;
+        }
+        int[] aIndex = keep(a, lo, aHi, inB);
+        int[] bIndex = keep(b, lo, bHi, inA);
+        int[] x = new int[aIndex.length];
+        int[] y = new int[bIndex.length];
+        for (int i = 0; i < x.length; i += 1) {
+            x[i] = a[aIndex[i]];
+        }
+        for (int j = 0; j < y.length; j += 1) {
+            y[j] = b[bIndex[j]];
+        }
+        int[] reduced = new Myers(x, y).match();
+        for (int i = 0; i < reduced.length; i += 1) {
+            if (reduced[i] >= 0) {
+                result[aIndex[i]] = bIndex[reduced[i]];
+            }
+        }
+        return result;
+    }
+
+    /** Returns the indices in LO..HI-1 of the lines of S that are marked
+     *  in OTHER.
+     * @param s interned lines
+     * @param lo first index
+     * @param hi index after the last
+     * @param other which lines occur on the other side */
+    private static int[] keep(int[] s, int lo, int hi, boolean[] other) {
+        int n = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (other[s[i]]) {
+                n += 1;
+            }
+        }
+        int[] result = new int[n];
+        n = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (other[s[i]]) {
+                result[n] = i;
+                n += 1;
+            }
+        }
+        return result;
+    }
+
+    /** The linear-space Myers search over two sequences. */
+    private static class Myers {
+
+        /** A search matching X against Y.
+         * @param x interned lines
+         * @param y interned lines */
+        Myers(int[] x, int[] y) {
+            _x = x;
+            _y = y;
+            int diagonals = x.length + y.length + 3;
+            _fd = new int[diagonals];
+            _bd = new int[diagonals];
+            _offset = y.length + 1;
+            _match = new int[x.length];
+            Arrays.fill(_match, -1);
+            _tooExpensive = Math.max(MIN_EXPENSIVE,
+                    1 << ((32 - Integer.numberOfLeadingZeros(diagonals))
+                          / 2));
+        }
+
+        /** Returns, for each index of X, the index of Y matched to it, or
+         *  -1. */
+        int[] match() {
+            ArrayDeque<int[]> work = new ArrayDeque<>();
+            work.push(new int[] {0, _x.length, 0, _y.length});
+            while (!work.isEmpty()) {
+                int[] r = work.pop();
+                int xoff = r[0];
+                int xlim = r[1];
+                int yoff = r[2];
+                int ylim = r[3];
+                while (xoff < xlim && yoff < ylim
+                       && _x[xoff] == _y[yoff]) {
+                    _match[xoff] = yoff;
+                    xoff += 1;
+                    yoff += 1;
+                }
+                while (xlim > xoff && ylim > yoff
+                       && _x[xlim - 1] == _y[ylim - 1]) {
+                    xlim -= 1;
+                    ylim -= 1;
+                    _match[xlim] = ylim;
+                }
+                if (xoff == xlim || yoff == ylim) {
+                    continue;
+                }
+                int[] mid = split(xoff, xlim, yoff, ylim);
+                if ((mid[0] == xoff && mid[1] == yoff)
+                    || (mid[0] == xlim && mid[1] == ylim)) {
+                    continue;
+                }
+                work.push(new int[] {mid[0], xlim, mid[1], ylim});
+                work.push(new int[] {xoff, mid[0], yoff, mid[1]});
+            }
+            return _match;
+        }
+
+        /** Returns the point {x, y} at which to divide the problem of
+         *  matching X[XOFF..XLIM-1] against Y[YOFF..YLIM-1]: the middle
+         *  snake of a shortest edit script, or a good guess at one if
+         *  that takes too long to find.
+         * @param xoff start in X
+         * @param xlim end in X
+         * @param yoff start in Y
+         * @param ylim end in Y */
+        private int[] split(int xoff, int xlim, int yoff, int ylim) {
+            int dmin = xoff - ylim;
+            int dmax = xlim - yoff;
+            int fmid = xoff - yoff;
+            int bmid = xlim - ylim;
+            int fmin = fmid;
+            int fmax = fmid;
+            int bmin = bmid;
+            int bmax = bmid;
+            boolean odd = ((fmid - bmid) & 1) != 0;
+            int o = _offset;
+            _fd[o + fmid] = xoff;
+            _bd[o + bmid] = xlim;
+            for (int c = 1;; c += 1) {
+                if (fmin > dmin) {
+                    fmin -= 1;
+                    _fd[o + fmin - 1] = -1;
+                } else {
+                    fmin += 1;
+                }
+                if (fmax < dmax) {
+                    fmax += 1;
+                    _fd[o + fmax + 1] = -1;
+                } else {
+                    fmax -= 1;
+                }
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    int tlo = _fd[o + d - 1];
+                    int thi = _fd[o + d + 1];
+                    int x = tlo >= thi ? tlo + 1 : thi;
+                    int y = x - d;
+                    while (x < xlim && y < ylim && _x[x] == _y[y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    _fd[o + d] = x;
+                    if (odd && bmin <= d && d <= bmax && _bd[o + d] <= x) {
+                        return new int[] {x, y};
+                    }
+                }
+                if (bmin > dmin) {
+                    bmin -= 1;
+                    _bd[o + bmin - 1] = Integer.MAX_VALUE;
+                } else {
+                    bmin += 1;
+                }
+                if (bmax < dmax) {
+                    bmax += 1;
+                    _bd[o + bmax + 1] = Integer.MAX_VALUE;
+                } else {
+                    bmax -= 1;
+                }
+                for (int d = bmax; d >= bmin; d -= 2) {
+                    int tlo = _bd[o + d - 1];
+                    int thi = _bd[o + d + 1];
+                    int x = tlo < thi ? tlo : thi - 1;
+                    int y = x - d;
+                    while (x > xoff && y > yoff && _x[x - 1] == _y[y - 1]) {
+                        x -= 1;
+                        y -= 1;
+                    }
+                    _bd[o + d] = x;
+                    if (!odd && fmin <= d && d <= fmax && x <= _fd[o + d]) {
+                        return new int[] {x, y};
+                    }
+                }
+                if (c >= _tooExpensive) {
+                    return guess(xoff, xlim, yoff, ylim,
+                                 fmin, fmax, bmin, bmax);
+                }
+            }
+        }
+
+        /** Returns the furthest point reached by the forward or the
+         *  backward search so far, whose diagonals are FMIN..FMAX and
+         *  BMIN..BMAX, in matching X[XOFF..XLIM-1] against
+         *  Y[YOFF..YLIM-1].
+         * @param xoff start in X
+         * @param xlim end in X
+         * @param yoff start in Y
+         * @param ylim end in Y
+         * @param fmin least forward diagonal
+         * @param fmax greatest forward diagonal
+         * @param bmin least backward diagonal
+         * @param bmax greatest backward diagonal */
+        private int[] guess(int xoff, int xlim, int yoff, int ylim,
+                            int fmin, int fmax, int bmin, int bmax) {
+            int o = _offset;
+            int fxybest = -1;
+            int fxbest = xoff;
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int x = Math.min(_fd[o + d], xlim);
+                int y = x - d;
+                if (y > ylim) {
+                    x = ylim + d;
+                    y = ylim;
+                }
+                if (x + y > fxybest) {
+                    fxybest = x + y;
+                    fxbest = x;
+                }
+            }
+            int bxybest = Integer.MAX_VALUE;
+            int bxbest = xlim;
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int x = Math.max(xoff, _bd[o + d]);
+                int y = x - d;
+                if (y < yoff) {
+                    x = yoff + d;
+                    y = yoff;
+                }
+                if (x + y < bxybest) {
+                    bxybest = x + y;
+                    bxbest = x;
+                }
+            }
+            if ((xlim + ylim) - bxybest < fxybest - (xoff + yoff)) {
+                return new int[] {fxbest, fxybest - fxbest};
+            }
+            return new int[] {bxbest, bxybest - bxbest};
+        }
+
+        /** Least number of edit steps deemed too expensive. */
+        private static final int MIN_EXPENSIVE = 256;
+
+        /** The sequences matched. */
+        private final int[] _x, _y;
+        /** Furthest x reached on each forward and backward diagonal. */
+        private final int[] _fd, _bd;
+        /** Index in _fd and _bd of diagonal 0. */
+        private final int _offset;
+        /** The result. */
+        private final int[] _match;
+        /** Number of edit steps after which the search guesses. */
+        private final int _tooExpensive;
+    }
+}
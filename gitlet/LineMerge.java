@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Three-way merges of text files, line by line, in the manner of diff3.
+ *  The base is matched against each side with LineDiff. Base lines that
+ *  both sides kept divide the files into stable runs, copied as they are,
+ *  and the changed regions between them. A region changed on one side
+ *  only takes that side's lines; one changed alike on both sides takes
+ *  either. Only a region changed differently on the two sides is a
+ *  conflict, and lines the two sides agree on at its start or end are
+ *  left outside the conflict markers, so conflicts are as small as the
+ *  changes allow. Files containing NUL bytes are treated as binary and
+ *  conflict as wholes.
+ *
+ *  @author charlesellis
+ */
+class LineMerge {
+
+    /** Marker before the current branch's side of a conflict. */
+    static final String OURS = "<<<<<<< HEAD\n";
+    /** Marker between the two sides of a conflict. */
+    static final String SEPARATOR = "=======\n";
+    /** Marker after the given branch's side of a conflict. */
+    static final String THEIRS = ">>>>>>>\n";
+
+    /** A merge of OURS and THEIRS, both changed from BASE.
+     * @param base contents at the split point
+     * @param ours contents in the current branch
+     * @param theirs contents in the given branch */
+    LineMerge(byte[] base, byte[] ours, byte[] theirs) {
+        if (LineDiff.binary(base) || LineDiff.binary(ours)
+            || LineDiff.binary(theirs)) {
+            _result = conflict(ours, theirs);
+            _conflicts = 1;
+            return;
+        }
+        _base = LineDiff.lines(base);
+        _ours = LineDiff.lines(ours);
+        _theirs = LineDiff.lines(theirs);
+        LineDiff.Interner lines = new LineDiff.Interner();
+        int[] b = lines.intern(_base);
+        int[] o = lines.intern(_ours);
+        int[] t = lines.intern(_theirs);
+        _result = LineDiff.bytes(merge(LineDiff.match(b, o, lines.size()),
+                LineDiff.match(b, t, lines.size())));
+    }
+
+    /** Returns OURS and THEIRS, in full, as one conflicting region.
+     * @param ours contents in the current branch
+     * @param theirs contents in the given branch */
+    static byte[] conflict(byte[] ours, byte[] theirs) {
+        return LineDiff.bytes(new StringBuilder(OURS)
+                .append(new String(ours, StandardCharsets.ISO_8859_1))
+                .append(SEPARATOR)
+                .append(new String(theirs, StandardCharsets.ISO_8859_1))
+                .append(THEIRS));
+    }
+
+    /** Returns the merged contents. */
+    byte[] result() {
+        return _result;
+    }
+
+    /** Returns the number of conflicting regions in the result. */
+    int conflicts() {
+        return _conflicts;
+    }
+
+    /** Returns the merged text, given the matches TOOURS and TOTHEIRS of
+     *  each base line in _ours and _theirs.
+     * @param toOurs base lines matched in _ours
+     * @param toTheirs base lines matched in _theirs */
+    private StringBuilder merge(int[] toOurs, int[] toTheirs) {
+        StringBuilder out = new StringBuilder();
+        int i = 0;
+        int o = 0;
+        int t = 0;
+        int n = _base.size();
+        while (i < n || o < _ours.size() || t < _theirs.size()) {
+            if (i < n && toOurs[i] == o && toTheirs[i] == t) {
+                out.append(_base.get(i));
+                i += 1;
+                o += 1;
+                t += 1;
+                continue;
+            }
+            int j = i;
+            while (j < n && (toOurs[j] < 0 || toTheirs[j] < 0)) {
+                j += 1;
+            }
+            int oEnd = j < n ? toOurs[j] : _ours.size();
+            int tEnd = j < n ? toTheirs[j] : _theirs.size();
+            region(i, j, o, oEnd, t, tEnd, out);
+            i = j;
+            o = oEnd;
+            t = tEnd;
+        }
+        return out;
+    }
+
+    /** Appends to OUT the merge of the region of base lines I0..I1-1,
+     *  which became lines O0..O1-1 of _ours and T0..T1-1 of _theirs.
+     * @param i0 first base line
+     * @param i1 base line after the last
+     * @param o0 first line of ours
+     * @param o1 line of ours after the last
+     * @param t0 first line of theirs
+     * @param t1 line of theirs after the last
+     * @param out the merged text */
+    private void region(int i0, int i1, int o0, int o1, int t0, int t1,
+                        StringBuilder out) {
+        if (same(_ours, o0, o1, _base, i0, i1)
+            || same(_ours, o0, o1, _theirs, t0, t1)) {
+            LineDiff.append(_theirs, t0, t1, out);
+        } else if (same(_theirs, t0, t1, _base, i0, i1)) {
+            LineDiff.append(_ours, o0, o1, out);
+        } else {
+            while (o0 < o1 && t0 < t1
+                   && _ours.get(o0).equals(_theirs.get(t0))) {
+                out.append(_ours.get(o0));
+                o0 += 1;
+                t0 += 1;
+            }
+            int o2 = o1;
+            int t2 = t1;
+            while (o2 > o0 && t2 > t0
+                   && _ours.get(o2 - 1).equals(_theirs.get(t2 - 1))) {
+                o2 -= 1;
+                t2 -= 1;
+            }
+            out.append(OURS);
+            terminated(LineDiff.append(_ours, o0, o2, out));
+            out.append(SEPARATOR);
+            terminated(LineDiff.append(_theirs, t0, t2, out));
+            out.append(THEIRS);
+            LineDiff.append(_ours, o2, o1, out);
+            _conflicts += 1;
+        }
+    }
+
+    /** Ends OUT with a newline, if it is not empty and lacks one, so that
+     *  a conflict marker following it starts a line.
+     * @param out the merged text */
+    private static void terminated(StringBuilder out) {
+        int n = out.length();
+        if (n > 0 && out.charAt(n - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    /** Returns true iff lines A0..A1-1 of A equal lines B0..B1-1 of B.
+     * @param a lines
+     * @param a0 first index in A
+     * @param a1 index in A after the last
+     * @param b lines
+     * @param b0 first index in B
+     * @param b1 index in B after the last */
+    private static boolean same(List<String> a, int a0, int a1,
+                                List<String> b, int b0, int b1) {
+        return a.subList(a0, a1).equals(b.subList(b0, b1));
+    }
+
+    /** Lines of the three versions. */
+    private List<String> _base, _ours, _theirs;
+    /** The merged contents. */
+    private byte[] _result;
+    /** Number of conflicting regions. */
+    private int _conflicts;
+}
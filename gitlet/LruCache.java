@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A cache of values by ID, bounded by the total weight of the values
+ *  kept and evicting the least recently used first. It counts hits,
+ *  misses and evictions.
+ *
+ *  @author charlesellis
+ */
+class LruCache<V> {
+
+    /** A cache named NAME holding values of total weight at most BUDGET,
+     *  as measured by WEIGHER.
+     * @param name the name shown in statistics
+     * @param budget the largest total weight kept
+     * @param weigher gives the weight of a value */
+    LruCache(String name, long budget, ToLongFunction<V> weigher) {
+        _name = name;
+        _budget = budget;
+        _weigher = weigher;
+    }
+
+    /** Returns the value cached for ID, or null if there is none.
+     * @param id the ID */
+    V get(String id) {
+        V value = _entries.get(id);
+        if (value == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return value;
+    }
+
+    /** Caches VALUE for ID, unless it alone exceeds the budget, then
+     *  evicts the least recently used values until back within budget.
+     * @param id the ID
+     * @param value its value */
+    void put(String id, V value) {
+        long weight = _weigher.applyAsLong(value);
+        if (weight > _budget) {
+            return;
+        }
+        V old = _entries.put(id, value);
+        if (old != null) {
+            _weight -= _weigher.applyAsLong(old);
+        }
+        _weight += weight;
+        Iterator<Map.Entry<String, V>> lru = _entries.entrySet().iterator();
+        while (_weight > _budget) {
+            _weight -= _weigher.applyAsLong(lru.next().getValue());
+            lru.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Returns the total weight of the values cached. */
+    long weight() {
+        return _weight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d evictions, "
+                + "%d entries, %d/%d bytes", _name, _hits, _misses,
+                _evictions, _entries.size(), _weight, _budget);
+    }
+
+    /** Name shown in statistics. */
+    private final String _name;
+    /** Largest total weight kept. */
+    private final long _budget;
+    /** Gives the weight of a value. */
+    private final ToLongFunction<V> _weigher;
+    /** Cached values, least recently used first. */
+    private final LinkedHashMap<String, V> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of _entries. */
+    private long _weight;
+    /** Number of lookups that found a value. */
+    private long _hits;
+    /** Number of lookups that did not. */
+    private long _misses;
+    /** Number of values evicted. */
+    private long _evictions;
+}
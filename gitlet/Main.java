@@ -13,54 +13,20 @@ public class Main {
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
-     * <COMMAND> <OPERAND> ....
+     * <COMMAND> <OPERAND> .... If a Gitlet daemon is running, the
+     * command is handed to it, and otherwise run here.
      */
     public static void main(String... args) {
+        if (args.length > 0 && !args[0].equals("daemon")
+                && !args[0].equals("fsmonitor")) {
+            int status = Daemon.forward(args, cwd());
+            if (status >= 0) {
+                System.out.flush();
+                System.exit(status);
+            }
+        }
         try {
-            if (args.length == 0) {
-                throw new GitletException("Please enter a command.");
-            }
-            if (!isValidCommand(args[0])) {
-                throw new GitletException("No command with that name exists.");
-            }
-            incorrectOps(args);
-            if (!args[0].equals("init") && myRepo == null) {
-                myRepo = getMyRepo();
-            }
-            if (args[0].equals("init")) {
-                myRepo = new Repo();
-                myRepo.init();
-            } else if (args[0].equals("add")) {
-                myRepo.addCommand(args[1]);
-            } else if (args[0].equals("commit")) {
-                myRepo.commitCommand(args[1]);
-            } else if (args[0].equals("log")) {
-                myRepo.log();
-            } else if (args[0].equals("global-log")) {
-                myRepo.globalLog();
-            } else if (args[0].equals("checkout")) {
-                String[] operands = Arrays.copyOfRange(args, 1, args.length);
-                if (operands.length == 1) {
-                    myRepo.checkout(operands[0]);
-                } else {
-                    myRepo.checkout(operands);
-                }
-            } else if (args[0].equals("branch")) {
-                myRepo.branchCommand(args[1]);
-            } else if (args[0].equals("rm-branch")) {
-                myRepo.removeBranch(args[1]);
-            } else if (args[0].equals("status")) {
-                myRepo.status();
-            } else if (args[0].equals("find")) {
-                myRepo.findCommand(args[1]);
-            } else if (args[0].equals("reset")) {
-                myRepo.resetCommand(args[1]);
-            } else if (args[0].equals("rm")) {
-                myRepo.removeCommand(args[1]);
-            } else if (args[0].equals("merge")) {
-                myRepo.mergeCommand(args[1]);
-            }
-            Utils.writeObject(repoFile, myRepo);
+            myRepo = execute(args, cwd(), myRepo);
         } catch (GitletException e) {
             System.out.println(e.getMessage());
             System.exit(0);
@@ -68,12 +34,127 @@ public class Main {
     }
 
     /**
-     * Returns true of theres a repo initialized
+     * Runs the command ARGS in the working directory DIR, whose
+     * repository is REPO, or is to be read from DIR if REPO is null, and
+     * returns the repository afterwards. Output goes to System.out.
+     * @param args the command and its operands
+     * @param dir the working directory
+     * @param repo the repository, or null
+     */
+    static Repo execute(String[] args, File dir, Repo repo) {
+        if (args.length == 0) {
+            throw new GitletException("Please enter a command.");
+        }
+        if (!isValidCommand(args[0])) {
+            throw new GitletException("No command with that name exists.");
+        }
+        incorrectOps(args);
+        File gitfile = Utils.join(dir, ".gitlet");
+        if (args[0].equals("daemon")) {
+            if (args.length == 1) {
+                new Daemon().run();
+            } else if (Daemon.forward(args, dir) < 0) {
+                throw new GitletException("No daemon is running.");
+            }
+            return repo;
+        }
+        if (args[0].equals("fsmonitor")) {
+            if (!repoInitialized(dir)) {
+                throw new GitletException("No gitlet directory "
+                        + "initialized.");
+            }
+            new FsMonitor(dir, gitfile).run();
+            return repo;
+        }
+        if (!args[0].equals("init") && repo == null) {
+            repo = getMyRepo(dir);
+        }
+        if (args[0].equals("init")) {
+            repo = new Repo(dir);
+            repo.init();
+        } else if (args[0].equals("add")) {
+            repo.addCommand(args[1]);
+        } else if (args[0].equals("commit")) {
+            repo.commitCommand(args[1]);
+        } else if (args[0].equals("log")) {
+            repo.log();
+        } else if (args[0].equals("global-log")) {
+            int skip = 0;
+            int limit = Integer.MAX_VALUE;
+            for (int i = 1; i < args.length; i += 2) {
+                if (args[i].equals("-n")) {
+                    limit = count(args[i + 1]);
+                } else {
+                    skip = count(args[i + 1]);
+                }
+            }
+            repo.globalLog(skip, limit);
+        } else if (args[0].equals("checkout")) {
+            String[] operands = Arrays.copyOfRange(args, 1, args.length);
+            if (operands.length == 1) {
+                repo.checkout(operands[0]);
+            } else {
+                repo.checkout(operands);
+            }
+        } else if (args[0].equals("branch")) {
+            repo.branchCommand(args[1]);
+        } else if (args[0].equals("rm-branch")) {
+            repo.removeBranch(args[1]);
+        } else if (args[0].equals("status")) {
+            repo.status();
+        } else if (args[0].equals("find")) {
+            if (args.length == 3) {
+                repo.findCommand(args[1], args[2]);
+            } else {
+                repo.findCommand(args[1]);
+            }
+        } else if (args[0].equals("reset")) {
+            if (args.length == 3) {
+                repo.resetCommand(args[1], args[2]);
+            } else {
+                repo.resetCommand(args[1]);
+            }
+        } else if (args[0].equals("rm")) {
+            repo.removeCommand(args[1]);
+        } else if (args[0].equals("merge")) {
+            repo.mergeCommand(args[1]);
+        } else if (args[0].equals("repack")) {
+            repo.repackCommand();
+        } else if (args[0].equals("diff")) {
+            int first = args.length > 1 && args[1].startsWith("--") ? 2 : 1;
+            repo.diffCommand(first == 2 ? args[1] : null,
+                    Arrays.copyOfRange(args, first, args.length));
+        }
+        repo.save();
+        if (Boolean.getBoolean("gitlet.trace")) {
+            System.err.println(repo.cacheStats());
+        }
+        return repo;
+    }
+
+    /**
+     * Returns the non-negative count written as ARG.
+     * @param arg a command operand
+     */
+    static int count(String arg) {
+        try {
+            int n = Integer.parseInt(arg);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw new GitletException("Incorrect operands.");
+    }
+
+    /**
+     * Returns true of theres a repo initialized in DIR
      * / if we have run the init command already.
+     * @param dir the working directory
      */
-    public static boolean repoInitialized() {
-        String f = System.getProperty("user.dir");
-        File tmpDir = new File(f + "/.gitlet");
+    public static boolean repoInitialized(File dir) {
+        File tmpDir = Utils.join(dir, ".gitlet");
         if (tmpDir.exists()) {
             return true;
         }
@@ -99,7 +180,8 @@ public class Main {
      */
     private static String[] commands = new String[]{ "init", "add",
             "commit", "rm", "log", "global-log", "find", "status",
-            "checkout", "branch", "rm-branch", "reset", "merge"};
+            "checkout", "branch", "rm-branch", "reset", "merge", "repack",
+            "diff", "fsmonitor", "daemon"};
 
 
     /**
@@ -108,31 +190,22 @@ public class Main {
     private static Repo myRepo;
 
     /**
-     * Refers to current directory.
-     */
-    private static File cwd = Utils.join(System.getProperty("user.dir"));
-
-    /**
-     * Refers to gitfile.
+     * Returns the current directory.
      */
-    private static File gitfile = Utils.join(cwd, ".gitlet");
+    static File cwd() {
+        return Utils.join(System.getProperty("user.dir"));
+    }
 
     /**
-     * Refers to repofile.
+     * Returns Repo in working directory DIR. Its state is read from
+     * .gitlet as it is needed.
+     * @param dir the working directory
      */
-    private static File repoFile = Utils.join(gitfile, "/repo");
-    /**
-     * Returns Repo, reading bytes in the repo file.
-     */
-    public static Repo getMyRepo() {
-        if (!repoInitialized()) {
+    public static Repo getMyRepo(File dir) {
+        if (!repoInitialized(dir)) {
             throw new GitletException("No gitlet directory initialized.");
         }
-        String currentDir = System.getProperty("user.dir");
-        File cwd = Utils.join(currentDir);
-        File gitFile = Utils.join(cwd, "/.gitlet");
-        File repoFile = Utils.join(gitFile, "/repo");
-        return Utils.readObject(repoFile, Repo.class);
+        return new Repo(dir);
     }
 
     /** Checks if operands are incorrect.
@@ -162,9 +235,14 @@ public class Main {
                 throw new GitletException("Incorrect operands.");
             }
         } else if (args[0].equals("global-log")) {
-            if (args.length > 1) {
+            if (args.length % 2 == 0 || args.length > 5) {
                 throw new GitletException("Incorrect operands.");
             }
+            for (int i = 1; i < args.length; i += 2) {
+                if (!args[i].equals("-n") && !args[i].equals("--skip")) {
+                    throw new GitletException("Incorrect operands.");
+                }
+            }
 
         } else if (args[0].equals("branch")) {
             if (args.length > 2) {
@@ -179,11 +257,16 @@ public class Main {
                 throw new GitletException("Incorrect operands.");
             }
         } else if (args[0].equals("find")) {
-            if (args.length > 2) {
+            if (args.length > 3 || args.length == 3
+                    && !args[1].equals("--contains")
+                    && !args[1].equals("--regex")) {
                 throw new GitletException("Incorrect operands.");
             }
         } else if (args[0].equals("reset")) {
-            if (args.length > 2) {
+            if (args.length > 3 || args.length == 3
+                    && !args[1].equals("--soft")
+                    && !args[1].equals("--mixed")
+                    && !args[1].equals("--hard")) {
                 throw new GitletException("Incorrect operands.");
             }
         } else if (args[0].equals("rm")) {
@@ -194,6 +277,26 @@ public class Main {
             if (args.length > 2) {
                 throw new GitletException("Incorrect operands");
             }
+        } else if (args[0].equals("repack")) {
+            if (args.length > 1) {
+                throw new GitletException("Incorrect operands.");
+            }
+        } else if (args[0].equals("diff")) {
+            boolean flag = args.length > 1 && args[1].startsWith("--");
+            if (args.length > (flag ? 4 : 3) || flag
+                    && !args[1].equals("--stat")
+                    && !args[1].equals("--name-only")) {
+                throw new GitletException("Incorrect operands.");
+            }
+        } else if (args[0].equals("fsmonitor")) {
+            if (args.length > 1) {
+                throw new GitletException("Incorrect operands.");
+            }
+        } else if (args[0].equals("daemon")) {
+            if (args.length > 2
+                    || args.length == 2 && !args[1].equals("stop")) {
+                throw new GitletException("Incorrect operands.");
+            }
         }
     }
 }
@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/** Merge-base computation over a commit graph. Both parents of every
+ *  merge commit are followed, and commits are visited in decreasing
+ *  generation order, so each commit is expanded at most once and the
+ *  walk stops as soon as the nearest common ancestor is reached.
+ *
+ *  @author charlesellis
+ */
+class MergeBase {
+
+    /** Flag for commits reachable from the first commit. */
+    private static final int LEFT = 1;
+    /** Flag for commits reachable from the second commit. */
+    private static final int RIGHT = 2;
+    /** Flags of a common ancestor. */
+    private static final int BOTH = LEFT | RIGHT;
+
+    /** A merge-base engine for GRAPH.
+     * @param graph the commit graph */
+    MergeBase(CommitGraph graph) {
+        _graph = graph;
+    }
+
+    /** Returns the position of a best common ancestor of the commits at
+     *  positions A and B: a common ancestor with the largest generation
+     *  number, which therefore is not an ancestor of any other common
+     *  ancestor. Returns CommitGraph.NONE if they share no history.
+     * @param a position of the first commit
+     * @param b position of the second commit */
+    int find(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        HashSet<Integer> queued = new HashSet<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(_graph.generation(y),
+                    _graph.generation(x));
+            if (cmp == 0) {
+                cmp = Long.compare(_graph.time(y), _graph.time(x));
+            }
+            return cmp;
+        });
+        flags.put(a, LEFT);
+        flags.put(b, RIGHT);
+        queue.add(a);
+        queue.add(b);
+        queued.add(a);
+        queued.add(b);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int f = flags.get(pos);
+            if (f == BOTH) {
+                return pos;
+            }
+            for (int parent : _graph.parents(pos)) {
+                flags.merge(parent, f, (x, y) -> x | y);
+                if (queued.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** The commit graph walked. */
+    private CommitGraph _graph;
+}
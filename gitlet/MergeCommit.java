@@ -1,9 +1,6 @@
 package gitlet;
 
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 
 /** Class of Merge Commit, a type of Commit.
  * @author charlesellis
@@ -13,31 +10,24 @@ public class MergeCommit extends Commit {
      * ******COMMIT.
      *
      * @param message msg
-     * @param parent p
+     * @param tree ID of the top tree, or null if there are no files
      * @param fileMap fm
      * @param merge mrge
      *
      * Same thing as commit but a MergeCommit.
-     * @param parents p's
+     * @param parents sha1 IDs of the current and the merged-in heads
      * */
-    public MergeCommit(String message, Commit parent,
+    public MergeCommit(String message, String tree,
                        HashMap<String, String> fileMap,
                        boolean merge, String[] parents) {
-        super(message, parent, fileMap, merge);
+        super(message, parents[0], tree, fileMap, merge);
         assert merge;
-        String[] split = message.split(" ");
-        String sha1 = parents[0];
-        String sha2 = parents[1];
-        _parentSha = sha1 + sha2;
-        Date date = new Date();
-        _timestamp = getDate(date);
-        List<Object> toSha = new ArrayList<Object>();
-        byte[] bytes = Utils.serialize(this);
-        toSha.add(bytes);
-        toSha.add(getMessage());
-        toSha.add(_parentSha);
-        toSha.add(timestamp());
-        _sha = Utils.sha1(toSha);
+        _parents.add(parents[1]);
+        _sha = computeSha();
+    }
+
+    /** An empty merge commit, filled in by {@link Commit#decode}. */
+    MergeCommit() {
     }
 
     /**
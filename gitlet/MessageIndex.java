@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** An index of commit messages under .gitlet/messages, so that find need
+ *  not decode every commit.
+ *
+ *  Messages are hashed into BUCKETS files under messages/text, each
+ *  holding lines "ID MESSAGE" (with backslashes and newlines in MESSAGE
+ *  escaped), so that an exact search reads one bucket. The lower-cased
+ *  words of each message are likewise hashed into files under
+ *  messages/words holding lines "WORD ID BUCKET", where BUCKET names the
+ *  text bucket of the commit's message, so that a substring search reads
+ *  only the text buckets of the commits containing every whole word of
+ *  the substring. Both are appended to as commits are made. The file
+ *  messages/complete, holding the format's VERSION, marks an index that
+ *  covers every commit; one of an older format is rebuilt.
+ *
+ *  @author charlesellis
+ */
+class MessageIndex {
+
+    /** Number of bucket files of each kind. */
+    private static final int BUCKETS = 256;
+    /** Version of the index format. */
+    private static final String VERSION = "2";
+    /** A word: a maximal run of letters and digits. */
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    /** The message index of the repository whose .gitlet directory is
+     *  GITFILE.
+     * @param gitFile the .gitlet directory */
+    MessageIndex(File gitFile) {
+        _dir = Utils.join(gitFile, "messages");
+        _text = Utils.join(_dir, "text");
+        _words = Utils.join(_dir, "words");
+        _complete = Utils.join(_dir, "complete");
+    }
+
+    /** Returns true iff the index covers every commit, in this
+     *  format. */
+    boolean exists() {
+        return _complete.isFile()
+            && Utils.readContentsAsString(_complete).equals(VERSION);
+    }
+
+    /** Builds the index afresh from MESSAGES, a map from the ID of every
+     *  commit to its message.
+     * @param messages all commit messages */
+    void build(Map<String, String> messages) {
+        _complete.delete();
+        for (File kind : new File[] {_text, _words}) {
+            List<String> old = Utils.plainFilenamesIn(kind);
+            if (old != null) {
+                for (String name : old) {
+                    Utils.join(kind, name).delete();
+                }
+            }
+        }
+        HashMap<File, StringBuilder> lines = new HashMap<>();
+        for (Map.Entry<String, String> e : messages.entrySet()) {
+            entries(e.getKey(), e.getValue(), lines);
+        }
+        append(lines);
+        Utils.writeContents(_complete, VERSION);
+    }
+
+    /** Adds commit ID, whose message is MESSAGE.
+     * @param id a commit ID
+     * @param message its message */
+    void add(String id, String message) {
+        HashMap<File, StringBuilder> lines = new HashMap<>();
+        entries(id, message, lines);
+        append(lines);
+    }
+
+    /** Returns the IDs of the commits whose message is exactly MESSAGE,
+     *  in sorted order.
+     * @param message a commit message */
+    List<String> exact(String message) {
+        TreeSet<String> result = new TreeSet<>();
+        for (String[] entry : read(bucket(_text, message))) {
+            if (unescape(entry[1]).equals(message)) {
+                result.add(entry[0]);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns a map from the ID of each commit whose message contains
+     *  TEXT to its message. Only the text buckets of the candidates are
+     *  read, so the cost grows with their number rather than with the
+     *  number of commits, unless TEXT has no whole word.
+     * @param text a substring of the messages sought */
+    TreeMap<String, String> containing(String text) {
+        HashMap<String, String> candidates = candidates(text);
+        TreeSet<String> buckets = new TreeSet<>();
+        if (candidates == null) {
+            for (int b = 0; b < BUCKETS; b += 1) {
+                buckets.add(name(b));
+            }
+        } else {
+            buckets.addAll(candidates.values());
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String b : buckets) {
+            for (String[] entry : read(Utils.join(_text, b))) {
+                if (candidates == null || candidates.containsKey(entry[0])) {
+                    String message = unescape(entry[1]);
+                    if (message.contains(text)) {
+                        result.put(entry[0], message);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns a map from the ID of each commit that may have a message
+     *  containing TEXT to the name of its text bucket: the commits
+     *  containing every word of TEXT that is whole, rather than possibly
+     *  cut off at either end of TEXT. Returns null if TEXT has no whole
+     *  word, so that every commit is a candidate.
+     * @param text a substring of the messages sought */
+    private HashMap<String, String> candidates(String text) {
+        HashMap<String, String> result = null;
+        Matcher m = WORD.matcher(text);
+        while (m.find()) {
+            if (m.start() == 0 || m.end() == text.length()) {
+                continue;
+            }
+            String word = m.group().toLowerCase();
+            HashMap<String, String> ids = new HashMap<>();
+            for (String[] entry : read(bucket(_words, word))) {
+                String[] rest = entry[1].split(" ");
+                if (entry[0].equals(word) && rest.length == 2) {
+                    ids.put(rest[0], rest[1]);
+                }
+            }
+            if (result == null) {
+                result = ids;
+            } else {
+                result.keySet().retainAll(ids.keySet());
+            }
+        }
+        return result;
+    }
+
+    /** Returns a map from the ID of every indexed commit to its
+     *  message. */
+    TreeMap<String, String> all() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int b = 0; b < BUCKETS; b += 1) {
+            for (String[] entry : read(Utils.join(_text, name(b)))) {
+                result.put(entry[0], unescape(entry[1]));
+            }
+        }
+        return result;
+    }
+
+    /** Adds the lines indexing commit ID, whose message is MESSAGE, to
+     *  LINES, a map from bucket file to the lines to be appended to it.
+     * @param id a commit ID
+     * @param message its message
+     * @param lines lines to append, by file */
+    private void entries(String id, String message,
+                         HashMap<File, StringBuilder> lines) {
+        File text = bucket(_text, message);
+        lines.computeIfAbsent(text, f -> new StringBuilder())
+            .append(id).append(' ').append(escape(message)).append('\n');
+        TreeSet<String> words = new TreeSet<>();
+        Matcher m = WORD.matcher(message);
+        while (m.find()) {
+            words.add(m.group().toLowerCase());
+        }
+        for (String word : words) {
+            lines.computeIfAbsent(bucket(_words, word),
+                                  f -> new StringBuilder())
+                .append(word).append(' ').append(id).append(' ')
+                .append(text.getName()).append('\n');
+        }
+    }
+
+    /** Appends LINES, a map from bucket file to text, to the bucket
+     *  files.
+     * @param lines text to append, by file */
+    private void append(HashMap<File, StringBuilder> lines) {
+        _text.mkdirs();
+        _words.mkdirs();
+        try {
+            for (Map.Entry<File, StringBuilder> e : lines.entrySet()) {
+                Files.write(e.getKey().toPath(), e.getValue().toString()
+                        .getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Returns the lines of bucket file F, each split at its first space,
+     *  or none if F does not exist.
+     * @param f a bucket file */
+    private static List<String[]> read(File f) {
+        ArrayList<String[]> result = new ArrayList<>();
+        if (!f.isFile()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(f).split("\n")) {
+            String[] entry = line.split(" ", 2);
+            if (entry.length == 2) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the bucket file in DIR for KEY.
+     * @param dir the kind of bucket
+     * @param key a message or word */
+    private static File bucket(File dir, String key) {
+        return Utils.join(dir, name(Math.floorMod(key.hashCode(), BUCKETS)));
+    }
+
+    /** Returns the file name of bucket B.
+     * @param b bucket number */
+    private static String name(int b) {
+        return String.format("%02x", b);
+    }
+
+    /** Returns S with backslashes and newlines escaped.
+     * @param s a message */
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /** Returns the message escaped as S.
+     * @param s an escaped message */
+    private static String unescape(String s) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                i += 1;
+                result.append(s.charAt(i) == 'n' ? '\n' : s.charAt(i));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** The index directory. */
+    private File _dir;
+    /** Directory of message buckets. */
+    private File _text;
+    /** Directory of word buckets. */
+    private File _words;
+    /** Marker present once the index covers every commit. */
+    private File _complete;
+}
@@ -0,0 +1,525 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** The object store of a repository: commits, trees and blobs, kept
+ *  either as compressed loose files under .gitlet/commits, .gitlet/trees
+ *  and .gitlet/blobs or in the pack under .gitlet/pack. Readers do not
+ *  need to know which.
+ *
+ *  Loose objects are fanned out into subdirectories named by the first
+ *  two hex digits of their sha1, so that no directory grows too large
+ *  and the objects with a given ID prefix are found by listing one
+ *  small directory. Objects stored directly in .gitlet/commits or
+ *  .gitlet/blobs by older versions are still found there.
+ *
+ *  @author charlesellis
+ */
+class ObjectStore {
+
+    /** Type code of commit objects. */
+    static final int COMMIT = 1;
+    /** Type code of blob objects. */
+    static final int BLOB = 2;
+    /** Type code of tree objects. */
+    static final int TREE = 3;
+    /** Number of candidate delta bases compared against each blob. */
+    private static final int WINDOW = 10;
+    /** Longest allowed delta chain. */
+    private static final int MAX_DEPTH = 10;
+    /** Bytes of objects read by repack before they are written to the
+     *  pack: the value of the system property gitlet.repack.batch, in
+     *  megabytes, by default 64. */
+    private static final long BATCH =
+        (long) Integer.getInteger("gitlet.repack.batch", 64) << 20;
+
+    /** The object store of the repository whose .gitlet directory is
+     *  GITFILE.
+     * @param gitFile the .gitlet directory */
+    ObjectStore(File gitFile) {
+        _commits = Utils.join(gitFile, "commits");
+        _blobs = Utils.join(gitFile, "blobs");
+        _trees = Utils.join(gitFile, "trees");
+        _pack = new Pack(Utils.join(gitFile, "pack"));
+    }
+
+    /** Returns true iff commit ID is stored.
+     * @param id commit ID */
+    boolean hasCommit(String id) {
+        return loose(_commits, id).exists()
+            || _pack.contains(key(id), COMMIT);
+    }
+
+    /** Returns the encoded commit ID, or null if there is none.
+     * @param id commit ID */
+    byte[] readCommit(String id) {
+        return read(_commits, id, COMMIT);
+    }
+
+    /** Writes the encoded commit CONTENTS as ID.
+     * @param id commit ID
+     * @param contents encoded commit */
+    void writeCommit(String id, byte[] contents) {
+        File f = loose(_commits, id);
+        f.getParentFile().mkdirs();
+        Utils.writeCompressed(f, contents);
+    }
+
+    /** Returns true iff tree ID is stored.
+     * @param id tree ID */
+    boolean hasTree(String id) {
+        return loose(_trees, id).exists()
+            || _pack.contains(key(id), TREE);
+    }
+
+    /** Returns the encoded tree ID, or null if there is none.
+     * @param id tree ID */
+    byte[] readTree(String id) {
+        return read(_trees, id, TREE);
+    }
+
+    /** Writes the encoded tree CONTENTS as ID.
+     * @param id tree ID
+     * @param contents encoded tree */
+    void writeTree(String id, byte[] contents) {
+        File f = loose(_trees, id);
+        f.getParentFile().mkdirs();
+        Utils.writeCompressed(f, contents);
+    }
+
+    /** Returns true iff blob ID is stored.
+     * @param id blob ID */
+    boolean hasBlob(String id) {
+        return loose(_blobs, id).exists()
+            || _pack.contains(key(id), BLOB);
+    }
+
+    /** Returns the contents of blob ID, or throws a GitletException if
+     *  there is none.
+     * @param id blob ID */
+    byte[] readBlob(String id) {
+        byte[] bytes = read(_blobs, id, BLOB);
+        if (bytes == null) {
+            throw new GitletException("No blob with that id exists.");
+        }
+        return bytes;
+    }
+
+    /** Returns the contents of blob ID, or only their first LIMIT bytes
+     *  if they are longer, decompressing no more than that of a loose
+     *  blob. Packed blobs, which repack keeps below its batch size, are
+     *  read whole.
+     * @param id blob ID
+     * @param limit most bytes returned */
+    byte[] readBlob(String id, int limit) {
+        File loose = loose(_blobs, id);
+        if (loose.exists()) {
+            return Utils.readCompressed(loose, limit);
+        }
+        byte[] bytes = readBlob(id);
+        return bytes.length <= limit ? bytes : Arrays.copyOf(bytes, limit);
+    }
+
+    /** Writes the contents of blob ID to DEST, streaming them from a
+     *  loose blob.
+     * @param id blob ID
+     * @param dest the file to write */
+    void copyBlob(String id, File dest) {
+        File loose = loose(_blobs, id);
+        dest.getParentFile().mkdirs();
+        if (loose.exists()) {
+            Utils.copyCompressed(loose, dest);
+        } else {
+            Utils.writeContents(dest, readBlob(id));
+        }
+    }
+
+    /** Stores the contents of SOURCE as a blob and returns its ID. The
+     *  file is read once, feeding the hash and the compressed object
+     *  together; if the blob was already stored the new copy is dropped.
+     * @param source the file holding the contents */
+    String insertBlob(File source) {
+        _blobs.mkdirs();
+        File tmp = Utils.join(_blobs, "tmp-" + System.nanoTime() + ".tmp");
+        String id;
+        Deflater def = Utils.deflater(Utils.COMPRESSION_LEVEL);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(
+                Files.newOutputStream(tmp.toPath()), def, Utils.BUFFER)) {
+            id = "B" + Utils.hashAndCopy(source, out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new GitletException(excp.getMessage());
+        } finally {
+            Utils.release(def);
+        }
+        if (hasBlob(id)) {
+            tmp.delete();
+            return id;
+        }
+        File dest = loose(_blobs, id);
+        dest.getParentFile().mkdirs();
+        if (!tmp.renameTo(dest)) {
+            throw new GitletException("Cannot store blob " + id + ".");
+        }
+        return id;
+    }
+
+    /** Returns the IDs of all stored commits, in sorted order. */
+    List<String> commitIds() {
+        TreeSet<String> result = new TreeSet<>(looseIds(_commits, ""));
+        result.addAll(_pack.ids(COMMIT));
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the IDs of up to LIMIT stored commits that start with
+     *  PREFIX, in sorted order. Only the fan-out directory of PREFIX and
+     *  the part of the pack index holding PREFIX are searched.
+     * @param prefix leading hex digits of a commit ID
+     * @param limit most IDs returned */
+    List<String> commitsWithPrefix(String prefix, int limit) {
+        TreeSet<String> result = new TreeSet<>(looseIds(_commits, prefix));
+        result.addAll(_pack.idsWithPrefix(prefix, COMMIT, limit));
+        ArrayList<String> first = new ArrayList<>();
+        for (String id : result) {
+            if (first.size() == limit) {
+                break;
+            }
+            first.add(id);
+        }
+        return first;
+    }
+
+    /** Returns the total size of the objects cached in memory. */
+    long cachedBytes() {
+        return _pack.cachedBytes();
+    }
+
+    /** Returns the files of commit ID, a map from path to blob ID.
+     * @param id commit ID */
+    HashMap<String, String> commitFiles(String id) {
+        return commit(id).getFileMap();
+    }
+
+    /** Returns commit ID, whose trees are read from this store as they
+     *  are needed.
+     * @param id commit ID */
+    private Commit commit(String id) {
+        return Commit.decode(id, readCommit(id), t -> Tree.flatten(this, t));
+    }
+
+    /** Returns the differences between the files of commits FROM, which
+     *  may be null for no files, and TO: a map from the path of each file
+     *  added or changed in TO to its blob ID there, and of each file only
+     *  in FROM to null. Commits with trees are compared tree by tree,
+     *  skipping the subtrees they share.
+     * @param from a commit, or null
+     * @param to another commit */
+    TreeMap<String, String> diff(Commit from, Commit to) {
+        if ((from == null || from.tree() != null
+             || from.getFileMap().isEmpty())
+            && (to.tree() != null || to.getFileMap().isEmpty())) {
+            return Tree.diff(this, from == null ? null : from.tree(),
+                             to.tree());
+        }
+        HashMap<String, String> old =
+            from == null ? new HashMap<>() : from.getFileMap();
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String name : old.keySet()) {
+            result.put(name, null);
+        }
+        to.getFileMap().forEach((name, blob) -> {
+            if (blob.equals(old.get(name))) {
+                result.remove(name);
+            } else {
+                result.put(name, blob);
+            }
+        });
+        return result;
+    }
+
+    /** Moves every loose object into the pack, then deletes the loose
+     *  copies. Blobs are stored as deltas against another version of the
+     *  same path where that saves space. Objects are read and appended to
+     *  the pack in batches of about BATCH bytes, so memory use does not
+     *  grow with the size of the repository, and blobs whose compressed
+     *  size exceeds BATCH are left loose, where they can be streamed.
+     *  Returns the number of objects moved. */
+    int repack() {
+        ArrayList<File> packed = new ArrayList<>();
+        Batch batch = new Batch();
+        List<String> commits = looseIds(_commits, "");
+        for (String id : commits) {
+            File f = loose(_commits, id);
+            byte[] data = Utils.readCompressed(f);
+            batch.add(new Pack.Entry(key(id), COMMIT, data), data.length);
+            packed.add(f);
+        }
+        for (String id : looseIds(_trees, "")) {
+            File f = loose(_trees, id);
+            byte[] data = Utils.readCompressed(f);
+            batch.add(new Pack.Entry(key(id), TREE, data), data.length);
+            packed.add(f);
+        }
+        ArrayList<String> blobs = new ArrayList<>();
+        for (String id : looseIds(_blobs, "")) {
+            if (loose(_blobs, id).length() <= BATCH) {
+                blobs.add(id);
+            }
+        }
+        deltify(blobs, commits, batch);
+        batch.flush();
+        for (String id : blobs) {
+            packed.add(loose(_blobs, id));
+        }
+        for (File f : packed) {
+            f.delete();
+            f.getParentFile().delete();
+        }
+        return packed.size();
+    }
+
+    /** Adds the loose blobs LOOSE to BATCH. Each blob is compared against
+     *  up to WINDOW other versions of the same path whose size is within
+     *  a factor of two of its own, drawn from the pack and from the blobs
+     *  of LOOSE already placed, and is stored as a delta against the one
+     *  giving the smallest delta if that is under half its size. Delta
+     *  chains are at most MAX_DEPTH long. The versions of each path are
+     *  found by diffing each of the loose commits COMMITS, which
+     *  introduced the loose blobs, against its first parent, so only the
+     *  trees that changed in them are read and the rest of history is
+     *  not walked: a path's versions are those of the loose commits and
+     *  the one before them. Blobs are read one at a time, keeping at
+     *  most BATCH bytes of recent ones as candidate bases.
+     * @param loose IDs of the loose blobs
+     * @param commits IDs of the loose commits
+     * @param batch the objects being packed */
+    private void deltify(List<String> loose, List<String> commits,
+                         Batch batch) {
+        HashMap<String, TreeSet<String>> versions = new HashMap<>();
+        HashMap<String, TreeSet<String>> paths = new HashMap<>();
+        for (String commID : commits) {
+            Commit c = commit(commID);
+            Commit parent = c.parents().isEmpty() ? null
+                : commit(c.parents().get(0));
+            diff(parent, c).forEach((path, blob) -> {
+                if (blob != null) {
+                    versions.computeIfAbsent(path, x -> new TreeSet<>())
+                        .add(blob);
+                    paths.computeIfAbsent(blob, x -> new TreeSet<>())
+                        .add(path);
+                }
+            });
+            if (parent != null) {
+                diff(c, parent).forEach((path, blob) -> {
+                    if (blob != null) {
+                        versions.computeIfAbsent(path,
+                                                 x -> new TreeSet<>())
+                            .add(blob);
+                    }
+                });
+            }
+        }
+        HashSet<String> unplaced = new HashSet<>(loose);
+        HashSet<String> placed = new HashSet<>();
+        HashMap<String, Integer> depths = new HashMap<>();
+        LruCache<byte[]> recent = new LruCache<>("repack", BATCH,
+                                                 b -> b.length);
+        loose.sort((x, y) -> Long.compare(loose(_blobs, y).length(),
+                                          loose(_blobs, x).length()));
+        for (String id : loose) {
+            byte[] data = Utils.readCompressed(loose(_blobs, id));
+            String bestBase = null;
+            byte[] bestDelta = null;
+            int tried = 0;
+            for (String path : paths.getOrDefault(id, new TreeSet<>())) {
+                for (String other : versions.get(path)) {
+                    if (tried >= WINDOW) {
+                        break;
+                    }
+                    byte[] base = null;
+                    if (placed.contains(other)) {
+                        base = recent.get(other);
+                        if (base == null) {
+                            base = Utils.readCompressed(loose(_blobs, other));
+                        }
+                    } else if (!other.equals(id) && !unplaced.contains(other)) {
+                        base = _pack.read(key(other), BLOB);
+                    }
+                    if (base == null
+                            || base.length > 2 * data.length
+                            || data.length > 2 * base.length
+                            || depth(other, depths) >= MAX_DEPTH) {
+                        continue;
+                    }
+                    tried += 1;
+                    byte[] delta = Delta.create(base, data);
+                    if (bestDelta == null || delta.length < bestDelta.length) {
+                        bestBase = other;
+                        bestDelta = delta;
+                    }
+                }
+            }
+            if (bestDelta != null && bestDelta.length < data.length / 2) {
+                batch.add(new Pack.Entry(key(id), BLOB, key(bestBase),
+                        bestDelta), bestDelta.length);
+                depths.put(id, depth(bestBase, depths) + 1);
+            } else {
+                batch.add(new Pack.Entry(key(id), BLOB, data), data.length);
+                depths.put(id, 0);
+            }
+            unplaced.remove(id);
+            placed.add(id);
+            recent.put(id, data);
+        }
+    }
+
+    /** Objects waiting to be appended to the pack. */
+    private class Batch {
+        /** Adds ENTRY, holding about BYTES bytes, appending the objects
+         *  waiting to the pack once they hold BATCH bytes.
+         * @param entry an object
+         * @param bytes its size */
+        void add(Pack.Entry entry, long bytes) {
+            _entries.add(entry);
+            _bytes += bytes;
+            if (_bytes >= BATCH) {
+                flush();
+            }
+        }
+
+        /** Appends the objects waiting to the pack. */
+        void flush() {
+            if (!_entries.isEmpty()) {
+                _pack.append(_entries);
+                _entries.clear();
+                _bytes = 0;
+            }
+        }
+
+        /** The objects waiting. */
+        private final ArrayList<Pack.Entry> _entries = new ArrayList<>();
+        /** Their total size. */
+        private long _bytes;
+    }
+
+    /** Returns the delta chain length of blob ID, taken from DEPTHS for
+     *  blobs being packed and from the pack otherwise.
+     * @param id blob ID
+     * @param depths chain lengths of the blobs being packed */
+    private int depth(String id, HashMap<String, Integer> depths) {
+        Integer depth = depths.get(id);
+        if (depth == null) {
+            depth = Math.max(0, _pack.depth(key(id)));
+            depths.put(id, depth);
+        }
+        return depth;
+    }
+
+    /** Returns the bytes of the object ID of type TYPE, looking first in
+     *  the loose directory DIR and then in the pack, or null if there is
+     *  no such object.
+     * @param dir loose object directory
+     * @param id object ID
+     * @param type object type */
+    private byte[] read(File dir, String id, int type) {
+        File loose = loose(dir, id);
+        if (loose.exists()) {
+            return Utils.readCompressed(loose);
+        }
+        return _pack.read(key(id), type);
+    }
+
+    /** Returns the loose file for object ID in directory DIR: in the
+     *  fan-out subdirectory of its key, unless an older version stored
+     *  it directly in DIR.
+     * @param dir loose object directory
+     * @param id object ID */
+    private static File loose(File dir, String id) {
+        File f = Utils.join(dir, key(id).substring(0, 2), id);
+        if (!f.exists()) {
+            File flat = Utils.join(dir, id);
+            if (flat.isFile()) {
+                return flat;
+            }
+        }
+        return f;
+    }
+
+    /** Returns the IDs of the loose objects in directory DIR whose keys
+     *  start with PREFIX. Only the fan-out subdirectories that can hold
+     *  them are listed, and only the one named by its first two digits
+     *  once PREFIX has them; of the names directly in DIR, only those of
+     *  matching objects stored by an older version are examined further.
+     * @param dir loose object directory
+     * @param prefix leading hex digits */
+    private static List<String> looseIds(File dir, String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return result;
+        }
+        if (prefix.length() >= 2) {
+            looseIds(Utils.join(dir, prefix.substring(0, 2)), prefix,
+                     result);
+        }
+        for (String name : names) {
+            if (name.length() == 2) {
+                if (prefix.length() < 2 && name.startsWith(prefix)) {
+                    looseIds(Utils.join(dir, name), prefix, result);
+                }
+            } else if (name.length() >= Utils.UID_LENGTH
+                    && !name.endsWith(".tmp")
+                    && key(name).startsWith(prefix)
+                    && Utils.join(dir, name).isFile()) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Adds to RESULT the IDs of the objects in fan-out subdirectory
+     *  SUBDIR whose keys start with PREFIX.
+     * @param subdir a fan-out subdirectory, which may not exist
+     * @param prefix leading hex digits
+     * @param result the IDs found */
+    private static void looseIds(File subdir, String prefix,
+                                 List<String> result) {
+        List<String> ids = Utils.plainFilenamesIn(subdir);
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            if (id.length() >= Utils.UID_LENGTH
+                    && key(id).startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+    }
+
+    /** Returns the 40-digit hex sha1 in object ID, dropping the "B"
+     *  prefix of blob IDs and the "T" prefix of tree IDs.
+     * @param id object ID */
+    static String key(String id) {
+        return id.substring(id.length() - Utils.UID_LENGTH);
+    }
+
+    /** Directory of loose commits. */
+    private File _commits;
+    /** Directory of loose blobs. */
+    private File _blobs;
+    /** Directory of loose trees. */
+    private File _trees;
+    /** The pack. */
+    private Pack _pack;
+}
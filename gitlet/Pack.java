@@ -0,0 +1,486 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A pack of objects: one append-only data file, objects.pack, holding
+ *  the objects back to back, compressed, whole or as deltas against
+ *  another object in the pack, and an index, objects.idx, holding their IDs
+ *  in sorted order behind a 256-entry fan-out table. The index is
+ *  memory-mapped and binary-searched, so finding an object costs a few
+ *  page touches however many objects the pack holds.
+ *
+ *  @author charlesellis
+ */
+class Pack {
+
+    /** Magic number at the start of the data file. */
+    private static final int PACK_MAGIC = 0x4750414b;
+    /** Magic number at the start of the index. */
+    private static final int IDX_MAGIC = 0x47494458;
+    /** Length of the data file header. */
+    private static final int PACK_HEADER = 8;
+    /** Number of fan-out entries. */
+    private static final int FANOUT = 256;
+    /** Offset of the first index record. */
+    private static final int IDX_HEADER = 8 + 4 * FANOUT;
+    /** Length of a binary sha1 ID. */
+    private static final int ID_BYTES = 20;
+    /** Length of an index record: ID, type and data file offset. */
+    private static final int RECORD = ID_BYTES + 4 + 8;
+    /** Length of the header of each object in the data file: its type
+     *  and its length. */
+    private static final int ENTRY_HEADER = 1 + 4;
+    /** Flag added to the type code in the data file of objects stored as
+     *  a delta; their data is the binary ID of the base and then the
+     *  delta. */
+    private static final int DELTA = 0x40;
+    /** Flag added to the type code in the data file of objects whose
+     *  stored data is zlib-compressed. Packs written before entries were
+     *  compressed lack it. */
+    private static final int COMPRESSED = 0x80;
+    /** Total size in bytes of the objects kept in the base cache. */
+    private static final int CACHE_BYTES = 16 << 20;
+
+    /** An object to be added to a pack. */
+    static class Entry {
+        /** An object with hex ID KEY, type code TYPE and contents DATA.
+         * @param key the 40-digit hex ID
+         * @param type the type code
+         * @param data the contents */
+        Entry(String key, int type, byte[] data) {
+            _key = key;
+            _type = type;
+            _data = data;
+        }
+
+        /** An object with hex ID KEY and type code TYPE, stored as DELTA
+         *  against the object with hex ID BASE.
+         * @param key the 40-digit hex ID
+         * @param type the type code
+         * @param base the hex ID of the base
+         * @param delta the delta from the base to this object */
+        Entry(String key, int type, String base, byte[] delta) {
+            this(key, type, delta);
+            _base = base;
+        }
+
+        /** Returns the contents, with the base ID first for deltas. */
+        private byte[] stored() {
+            if (_base == null) {
+                return _data;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(ID_BYTES + _data.length);
+            return buf.put(CommitGraph.toBytes(_base)).put(_data).array();
+        }
+
+        /** Hex ID. */
+        private String _key;
+        /** Type code. */
+        private int _type;
+        /** Contents, or the delta if _base is not null. */
+        private byte[] _data;
+        /** Hex ID of the delta base, or null. */
+        private String _base;
+    }
+
+    /** The pack stored in directory DIR.
+     * @param dir the pack directory, created on first append */
+    Pack(File dir) {
+        _dir = dir;
+        _data = Utils.join(dir, "objects.pack");
+        _index = Utils.join(dir, "objects.idx");
+        _bases = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Returns the total size of the objects cached in memory. */
+    long cachedBytes() {
+        return _cached;
+    }
+
+    /** Returns true iff the pack holds object KEY of type TYPE. May be
+     *  called from several threads at once.
+     * @param key hex ID
+     * @param type type code */
+    synchronized boolean contains(String key, int type) {
+        int rec = find(key);
+        return rec >= 0 && _map.getInt(record(rec) + ID_BYTES) == type;
+    }
+
+    /** Returns the contents of object KEY of type TYPE, or null if the
+     *  pack does not hold it. May be called from several threads at once.
+     * @param key hex ID
+     * @param type type code */
+    synchronized byte[] read(String key, int type) {
+        int rec = find(key);
+        if (rec < 0 || _map.getInt(record(rec) + ID_BYTES) != type) {
+            return null;
+        }
+        byte[] cached = _bases.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        ByteBuffer entry = readEntry(rec);
+        if ((entry.get() & DELTA) == 0) {
+            return Arrays.copyOfRange(entry.array(), 1,
+                    entry.array().length);
+        }
+        byte[] base = new byte[ID_BYTES];
+        entry.get(base);
+        String baseKey = CommitGraph.toHex(base);
+        byte[] baseData = read(baseKey, type);
+        cache(baseKey, baseData);
+        byte[] delta = Arrays.copyOfRange(entry.array(), entry.position(),
+                entry.array().length);
+        return Delta.apply(baseData, delta);
+    }
+
+    /** Returns the number of deltas that must be applied to rebuild
+     *  object KEY, or -1 if the pack does not hold it.
+     * @param key hex ID */
+    int depth(String key) {
+        int depth = 0;
+        while (true) {
+            int rec = find(key);
+            if (rec < 0) {
+                return depth == 0 ? -1 : depth;
+            }
+            ByteBuffer entry = readEntry(rec);
+            if ((entry.get() & DELTA) == 0) {
+                return depth;
+            }
+            byte[] base = new byte[ID_BYTES];
+            entry.get(base);
+            key = CommitGraph.toHex(base);
+            depth += 1;
+        }
+    }
+
+    /** Returns the data file entry of index record REC: its type code
+     *  followed by its stored contents, decompressed.
+     * @param rec record number */
+    private ByteBuffer readEntry(int rec) {
+        long offset = _map.getLong(record(rec) + ID_BYTES + 4);
+        try {
+            FileChannel in = channel();
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+            readFully(in, header, offset);
+            header.flip();
+            int type = header.get() & 0xff;
+            ByteBuffer stored = ByteBuffer.allocate(header.getInt());
+            readFully(in, stored, offset + ENTRY_HEADER);
+            byte[] data = stored.array();
+            if ((type & COMPRESSED) != 0) {
+                data = inflate(data);
+            }
+            ByteBuffer entry = ByteBuffer.allocate(1 + data.length);
+            entry.put((byte) (type & ~COMPRESSED)).put(data);
+            entry.flip();
+            return entry;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Returns the data file, opened for reading on first use and kept
+     *  open for the life of this Pack. Its reads are positional, so
+     *  several threads may share it, and it sees entries appended later.
+     *  The channel is closed when the Pack is garbage-collected.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel result = _channel;
+        if (result == null) {
+            synchronized (this) {
+                if (_channel == null) {
+                    _channel = FileChannel.open(_data.toPath(),
+                                                StandardOpenOption.READ);
+                }
+                result = _channel;
+            }
+        }
+        return result;
+    }
+
+    /** Keeps DATA, the contents of delta base KEY, in the base cache,
+     *  evicting the least recently used bases beyond CACHE_BYTES.
+     * @param key hex ID
+     * @param data contents */
+    private void cache(String key, byte[] data) {
+        if (data.length > CACHE_BYTES || _bases.containsKey(key)) {
+            return;
+        }
+        _bases.put(key, data);
+        _cached += data.length;
+        Iterator<Map.Entry<String, byte[]>> lru =
+            _bases.entrySet().iterator();
+        while (_cached > CACHE_BYTES) {
+            _cached -= lru.next().getValue().length;
+            lru.remove();
+        }
+    }
+
+    /** Returns the hex IDs of all objects of type TYPE, in sorted order.
+     * @param type type code */
+    List<String> ids(int type) {
+        ArrayList<String> result = new ArrayList<>();
+        int n = size();
+        byte[] id = new byte[ID_BYTES];
+        for (int rec = 0; rec < n; rec += 1) {
+            if (_map.getInt(record(rec) + ID_BYTES) == type) {
+                _map.get(record(rec), id);
+                result.add(CommitGraph.toHex(id));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the hex IDs of up to LIMIT objects of type TYPE whose IDs
+     *  start with the hex digits PREFIX, in sorted order, found by binary
+     *  search of the index.
+     * @param prefix leading hex digits
+     * @param type type code
+     * @param limit most IDs returned */
+    List<String> idsWithPrefix(String prefix, int type, int limit) {
+        ArrayList<String> result = new ArrayList<>();
+        int n = size();
+        byte[] low = CommitGraph.toBytes((prefix + "0".repeat(
+                Utils.UID_LENGTH)).substring(0, Utils.UID_LENGTH));
+        byte[] id = new byte[ID_BYTES];
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            _map.get(record(mid), id);
+            if (Arrays.compareUnsigned(id, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int rec = lo; rec < n && result.size() < limit; rec += 1) {
+            _map.get(record(rec), id);
+            String hex = CommitGraph.toHex(id);
+            if (!hex.startsWith(prefix)) {
+                break;
+            }
+            if (_map.getInt(record(rec) + ID_BYTES) == type) {
+                result.add(hex);
+            }
+        }
+        return result;
+    }
+
+    /** Appends the objects in ENTRIES that the pack does not yet hold to
+     *  the data file, then rewrites the index to cover them.
+     * @param entries the objects to add */
+    void append(List<Entry> entries) {
+        TreeMap<String, long[]> records = new TreeMap<>();
+        int n = size();
+        byte[] id = new byte[ID_BYTES];
+        for (int rec = 0; rec < n; rec += 1) {
+            _map.get(record(rec), id);
+            records.put(CommitGraph.toHex(id), new long[] {
+                _map.getInt(record(rec) + ID_BYTES),
+                _map.getLong(record(rec) + ID_BYTES + 4)});
+        }
+        _dir.mkdirs();
+        try (FileChannel out = FileChannel.open(_data.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            long offset = out.size();
+            if (offset == 0) {
+                ByteBuffer header = ByteBuffer.allocate(PACK_HEADER);
+                header.putInt(PACK_MAGIC).putInt(1).flip();
+                offset += out.write(header);
+            }
+            for (Entry e : entries) {
+                if (records.containsKey(e._key)) {
+                    continue;
+                }
+                byte[] data = deflate(e.stored());
+                int type = (e._base == null ? e._type : e._type | DELTA)
+                    | COMPRESSED;
+                ByteBuffer buf =
+                    ByteBuffer.allocate(ENTRY_HEADER + data.length);
+                buf.put((byte) type).putInt(data.length).put(data);
+                buf.flip();
+                records.put(e._key, new long[] {e._type, offset});
+                while (buf.hasRemaining()) {
+                    offset += out.write(buf);
+                }
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        writeIndex(records);
+    }
+
+    /** Writes an index holding RECORDS, a map from hex ID to type code
+     *  and data file offset, replacing the current one atomically.
+     * @param records the index contents */
+    private void writeIndex(TreeMap<String, long[]> records) {
+        ByteBuffer buf = ByteBuffer.allocate(IDX_HEADER
+                + RECORD * records.size());
+        buf.putInt(IDX_MAGIC).putInt(1);
+        int[] fanout = new int[FANOUT];
+        for (String key : records.keySet()) {
+            fanout[Integer.parseInt(key.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int i = 0; i < FANOUT; i += 1) {
+            total += fanout[i];
+            buf.putInt(total);
+        }
+        for (String key : records.keySet()) {
+            long[] rec = records.get(key);
+            buf.put(CommitGraph.toBytes(key)).putInt((int) rec[0]);
+            buf.putLong(rec[1]);
+        }
+        File tmp = Utils.join(_dir, "objects.idx.tmp");
+        Utils.writeContents(tmp, buf.array());
+        try {
+            Files.move(tmp.toPath(), _index.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        _map = null;
+    }
+
+    /** Returns the index record number of object KEY, or -1 if the pack
+     *  does not hold it.
+     * @param key hex ID */
+    private int find(String key) {
+        if (size() == 0) {
+            return -1;
+        }
+        byte[] want = CommitGraph.toBytes(key);
+        int first = want[0] & 0xff;
+        int lo = first == 0 ? 0 : _map.getInt(8 + 4 * (first - 1));
+        int hi = _map.getInt(8 + 4 * first) - 1;
+        byte[] have = new byte[ID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            _map.get(record(mid), have);
+            int cmp = Arrays.compareUnsigned(have, want);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of objects in the pack, mapping the index into
+     *  memory if needed. */
+    private int size() {
+        if (_map == null) {
+            if (!_index.exists()) {
+                _map = ByteBuffer.allocate(IDX_HEADER);
+                return 0;
+            }
+            try (FileChannel in = FileChannel.open(_index.toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer map =
+                    in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                if (map.getInt(0) != IDX_MAGIC) {
+                    throw new GitletException("Corrupt pack index.");
+                }
+                _map = map;
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+        return _map.getInt(8 + 4 * (FANOUT - 1));
+    }
+
+    /** Returns DATA compressed at the repository's compression level.
+     * @param data bytes to compress */
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        Deflater def = Utils.deflater(Utils.COMPRESSION_LEVEL);
+        try (DeflaterOutputStream out =
+                 new DeflaterOutputStream(result, def, Utils.BUFFER)) {
+            out.write(data);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            Utils.release(def);
+        }
+        return result.toByteArray();
+    }
+
+    /** Returns the decompressed contents of DATA.
+     * @param data bytes compressed by deflate */
+    private static byte[] inflate(byte[] data) {
+        Inflater inf = Utils.inflater();
+        try (InflaterInputStream in = new InflaterInputStream(
+                 new ByteArrayInputStream(data), inf, Utils.BUFFER)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt pack: " + excp.getMessage());
+        } finally {
+            Utils.release(inf);
+        }
+    }
+
+    /** Returns the byte offset of index record REC.
+     * @param rec record number */
+    private static int record(int rec) {
+        return IDX_HEADER + rec * RECORD;
+    }
+
+    /** Fills BUF from IN starting at POSITION.
+     * @param in the channel
+     * @param buf the buffer
+     * @param position file offset */
+    private static void readFully(FileChannel in, ByteBuffer buf,
+                                  long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = in.read(buf, position);
+            if (n < 0) {
+                throw new IOException("Truncated pack.");
+            }
+            position += n;
+        }
+    }
+
+    /** The pack directory. */
+    private File _dir;
+    /** The data file. */
+    private File _data;
+    /** The index file. */
+    private File _index;
+    /** The data file opened for reading, or null if not yet opened. */
+    private volatile FileChannel _channel;
+    /** The mapped index, or null if not yet mapped. */
+    private ByteBuffer _map;
+    /** Recently rebuilt delta bases, least recently used first. */
+    private LinkedHashMap<String, byte[]> _bases;
+    /** Total size of the objects in _bases. */
+    private long _cached;
+}
@@ -0,0 +1,339 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The branches of a repository and which of them is current. The
+ *  current branch's name is kept in .gitlet/HEAD. Branch heads are kept
+ *  in .gitlet/packed-refs, one line "ID NAME" per branch sorted by name,
+ *  which is memory-mapped and binary-searched to find one branch,
+ *  overlaid by loose files under .gitlet/refs/heads holding recent
+ *  changes. A loose file holding DELETED marks a packed branch as
+ *  deleted. Once there are more than LOOSE_LIMIT loose files, they are
+ *  folded into a new packed-refs file.
+ *
+ *  Loose files are all directly under refs/heads. A branch name is
+ *  turned into a file name by writing as %XX (the hex of each UTF-8
+ *  byte) every '%', '/', '\' and control character, a leading '.', and
+ *  the '.' of a trailing ".tmp", so that any name, such as "feature/x"
+ *  or "..", names one plain file there that is not a temporary file.
+ *
+ *  Changes are held in memory until save, which rewrites only the files
+ *  that changed.
+ *
+ *  @author charlesellis
+ */
+class Refs {
+
+    /** Contents of a loose file marking a branch as deleted. */
+    static final String DELETED = "0".repeat(Utils.UID_LENGTH);
+    /** Number of loose files beyond which they are packed. */
+    static final int LOOSE_LIMIT =
+        Integer.getInteger("gitlet.refs.loose", 64);
+    /** Order of names in the packed file: by their UTF-8 bytes. */
+    private static final Comparator<String> ORDER = (x, y) ->
+        Arrays.compareUnsigned(x.getBytes(StandardCharsets.UTF_8),
+                               y.getBytes(StandardCharsets.UTF_8));
+
+    /** The branches of the repository whose .gitlet directory is
+     *  GITFILE.
+     * @param gitFile the .gitlet directory */
+    Refs(File gitFile) {
+        _headFile = Utils.join(gitFile, "HEAD");
+        _heads = Utils.join(gitFile, "refs", "heads");
+        _packedFile = Utils.join(gitFile, "packed-refs");
+    }
+
+    /** Returns the name of the current branch. */
+    String head() {
+        if (_head == null) {
+            if (!_headFile.isFile()) {
+                throw new GitletException("No gitlet directory initialized.");
+            }
+            _head = Utils.readContentsAsString(_headFile).trim();
+        }
+        return _head;
+    }
+
+    /** Makes BRANCH the current branch.
+     * @param branch the branch name */
+    void setHead(String branch) {
+        if (!branch.equals(_head)) {
+            _head = branch;
+            _headChanged = true;
+        }
+    }
+
+    /** Returns the head commit ID of BRANCH, or null if there is no such
+     *  branch.
+     * @param branch the branch name */
+    String get(String branch) {
+        if (_changed.containsKey(branch)) {
+            return _changed.get(branch);
+        }
+        if (!_read.containsKey(branch)) {
+            String id = readLoose(branch);
+            if (id == null) {
+                id = findPacked(branch);
+            } else if (id.equals(DELETED)) {
+                id = null;
+            }
+            _read.put(branch, id);
+        }
+        return _read.get(branch);
+    }
+
+    /** Returns true iff BRANCH exists.
+     * @param branch the branch name */
+    boolean contains(String branch) {
+        return get(branch) != null;
+    }
+
+    /** Sets the head commit of BRANCH, creating it if need be, to ID.
+     * @param branch the branch name
+     * @param id a commit ID */
+    void put(String branch, String id) {
+        if (!id.equals(get(branch))) {
+            _changed.put(branch, id);
+        }
+    }
+
+    /** Deletes BRANCH.
+     * @param branch the branch name */
+    void remove(String branch) {
+        if (get(branch) != null) {
+            _changed.put(branch, null);
+        }
+    }
+
+    /** Returns the names of all branches, in sorted order. */
+    List<String> names() {
+        TreeMap<String, String> all = readAll();
+        for (Map.Entry<String, String> e : _changed.entrySet()) {
+            if (e.getValue() == null) {
+                all.remove(e.getKey());
+            } else {
+                all.put(e.getKey(), e.getValue());
+            }
+        }
+        ArrayList<String> result = new ArrayList<>(all.keySet());
+        result.sort(null);
+        return result;
+    }
+
+    /** Writes the files of the branches that have changed, then packs
+     *  the loose files if there are too many. */
+    void save() {
+        if (_headChanged) {
+            Utils.replaceContents(_headFile, _head + "\n");
+            _headChanged = false;
+        }
+        for (Map.Entry<String, String> e : _changed.entrySet()) {
+            File f = Utils.join(_heads, fileName(e.getKey()));
+            if (e.getValue() != null) {
+                Utils.replaceContents(f, e.getValue() + "\n");
+            } else if (findPacked(e.getKey()) != null) {
+                Utils.replaceContents(f, DELETED + "\n");
+            } else {
+                f.delete();
+            }
+            _read.put(e.getKey(), e.getValue());
+        }
+        _changed.clear();
+        List<String> loose = looseNames();
+        if (loose.size() > LOOSE_LIMIT) {
+            compact();
+        }
+    }
+
+    /** Folds every loose file into a new packed-refs file and deletes
+     *  the loose files. Unsaved changes are not included. */
+    void compact() {
+        List<String> loose = looseNames();
+        if (loose.isEmpty()) {
+            return;
+        }
+        TreeMap<String, String> all = readAll();
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> e : all.entrySet()) {
+            out.append(e.getValue()).append(' ').append(e.getKey())
+                .append('\n');
+        }
+        Utils.replaceContents(_packedFile, out.toString());
+        _packed = null;
+        for (String name : loose) {
+            Utils.join(_heads, fileName(name)).delete();
+        }
+    }
+
+    /** Returns a map from the name of every stored branch to its head
+     *  commit, in packed-file order, ignoring unsaved changes. */
+    private TreeMap<String, String> readAll() {
+        TreeMap<String, String> result = new TreeMap<>(ORDER);
+        ByteBuffer packed = packed();
+        if (packed != null) {
+            byte[] bytes = new byte[packed.limit()];
+            packed.get(0, bytes);
+            String contents = new String(bytes, StandardCharsets.UTF_8);
+            for (String line : contents.split("\n")) {
+                if (line.length() > Utils.UID_LENGTH) {
+                    result.put(line.substring(Utils.UID_LENGTH + 1),
+                               line.substring(0, Utils.UID_LENGTH));
+                }
+            }
+        }
+        for (String name : looseNames()) {
+            String id = readLoose(name);
+            if (id == null || id.equals(DELETED)) {
+                result.remove(name);
+            } else {
+                result.put(name, id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names of the branches with loose files. */
+    private List<String> looseNames() {
+        ArrayList<String> result = new ArrayList<>();
+        List<String> stored = Utils.plainFilenamesIn(_heads);
+        if (stored != null) {
+            for (String name : stored) {
+                if (!name.endsWith(".tmp")) {
+                    result.add(branchName(name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the name of the loose file for BRANCH.
+     * @param branch the branch name */
+    static String fileName(String branch) {
+        StringBuilder result = new StringBuilder();
+        byte[] bytes = branch.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += 1) {
+            int c = bytes[i] & 0xff;
+            if (c == '%' || c == '/' || c == '\\' || c < ' ' || c == 0x7f
+                || c == '.' && (i == 0 || i == bytes.length - 4
+                                && branch.endsWith(".tmp"))) {
+                result.append(String.format("%%%02X", c));
+            } else {
+                result.append((char) c);
+            }
+        }
+        return new String(result.toString().getBytes(
+                StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    /** Returns the branch whose loose file is named FILE.
+     * @param file a file name returned by fileName */
+    static String branchName(String file) {
+        byte[] bytes = file.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[bytes.length];
+        int n = 0;
+        for (int i = 0; i < bytes.length; i += 1) {
+            if (bytes[i] == '%' && i + 2 < bytes.length) {
+                result[n] = (byte) Integer.parseInt(
+                        new String(bytes, i + 1, 2, StandardCharsets.US_ASCII),
+                        16);
+                i += 2;
+            } else {
+                result[n] = bytes[i];
+            }
+            n += 1;
+        }
+        return new String(result, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the contents of the loose file for BRANCH, or null if
+     *  there is none.
+     * @param branch the branch name */
+    private String readLoose(String branch) {
+        File f = Utils.join(_heads, fileName(branch));
+        return f.isFile() ? Utils.readContentsAsString(f).trim() : null;
+    }
+
+    /** Returns the head commit of BRANCH according to the packed file,
+     *  or null if it is not there, reading only the lines a binary search
+     *  visits.
+     * @param branch the branch name */
+    private String findPacked(String branch) {
+        ByteBuffer buf = packed();
+        if (buf == null) {
+            return null;
+        }
+        byte[] key = branch.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = buf.limit();
+        while (lo < hi) {
+            int start = (lo + hi) >>> 1;
+            while (start > lo && buf.get(start - 1) != '\n') {
+                start -= 1;
+            }
+            int end = start;
+            while (end < buf.limit() && buf.get(end) != '\n') {
+                end += 1;
+            }
+            int nameStart = start + Utils.UID_LENGTH + 1;
+            byte[] name = new byte[Math.max(0, end - nameStart)];
+            buf.get(nameStart, name);
+            int c = Arrays.compareUnsigned(key, name);
+            if (c == 0) {
+                byte[] id = new byte[Utils.UID_LENGTH];
+                buf.get(start, id);
+                return new String(id, StandardCharsets.US_ASCII);
+            } else if (c < 0) {
+                hi = start;
+            } else {
+                lo = end + 1;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the packed file, mapped into memory, or null if there is
+     *  none. */
+    private ByteBuffer packed() {
+        if (_packed == null && _packedFile.isFile()) {
+            try (FileChannel channel = FileChannel.open(_packedFile.toPath(),
+                     StandardOpenOption.READ)) {
+                _packed = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                      channel.size());
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+        return _packed;
+    }
+
+    /** The file naming the current branch. */
+    private File _headFile;
+    /** Directory of loose branch files. */
+    private File _heads;
+    /** The packed branch file. */
+    private File _packedFile;
+    /** Contents of _packedFile, or null if not yet mapped. */
+    private ByteBuffer _packed;
+    /** The current branch, or null if not yet read. */
+    private String _head;
+    /** True iff _head differs from _headFile. */
+    private boolean _headChanged;
+    /** Head commits of the branches read so far, null for those that do
+     *  not exist. */
+    private HashMap<String, String> _read = new HashMap<>();
+    /** Branches changed since they were read, mapped to their new head
+     *  commits, or to null if deleted. */
+    private HashMap<String, String> _changed = new HashMap<>();
+}
@@ -1,49 +1,89 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /** Repository class.
  *
  * @author charlesellis
  *
  * */
-public class Repo implements Serializable {
+public class Repo {
 
-    /** String HEAD branch. */
-    private String _head;
-     /** String current directory. */
+    /** String current directory. */
     private String currentDir;
     /** File current working directory. */
     private File cwd;
     /** File commit file. */
     private File commitFile;
-    /** File staging file. */
-    private File stagingFile;
     /** File blob file. */
     private File blobFile;
-    /** File repo file. */
-    private File repoFile;
     /** File .gitlet file. */
     private File gitFile;
-    /** Staging Area object to this repo. */
+    /** File holding the staging area. */
+    private File stagingFile;
+    /** Staging Area object to this repo, read on first use. */
     private StagingArea stagingArea;
-    /** Untracked files in this repo. */
-    private HashMap<String, String> _untrackedFiles;
+    /** Untracked files in this repo, as of the last
+     *  updateUntrackedFiles. */
+    private HashMap<String, String> _untrackedFiles = new HashMap<>();
+    /** Branches of this repo, opened on first use. */
+    private Refs _refs;
+    /** Commits read by this repo, created on first use. */
+    private LruCache<Commit> _commitCache;
+    /** File maps of the trees read by this repo, created on first
+     *  use. */
+    private LruCache<HashMap<String, String>> _treeCache;
+    /** Blobs read by this repo, created on first use. */
+    private LruCache<byte[]> _blobCache;
+    /** Object store of this repo, opened on first use. */
+    private ObjectStore _objects;
+    /** Stat cache of this repo's working files, opened on first use. */
+    private StatCache _statCache;
+    /** Commit-graph index of this repo, opened on first use. */
+    private CommitGraph _graph;
+    /** Split points found during this command, keyed by the IDs of the
+     *  two heads. */
+    private HashMap<String, String> _splitPoints;
+    /** Blob IDs of the plain files in the working directory, as of the
+     *  last updateUntrackedFiles. */
+    private TreeMap<String, String> _worktree;
+    /** Changes reported by the file-system monitor during this command,
+     *  or null if it has not yet been asked. */
+    private FsMonitor.Changes _monitored;
 
+    /**
+     * A repo whose working directory is DIR.
+     * @param dir the working directory
+     */
+    public Repo(File dir) {
+        currentDir = dir.getPath();
+        cwd = Utils.join(currentDir);
+        gitFile = Utils.join(cwd, ".gitlet");
+        commitFile = Utils.join(gitFile, "commits");
+        blobFile = Utils.join(gitFile, "blobs");
+        stagingFile = Utils.join(gitFile, "staging");
+    }
 
     /**
      * Initialize Repo, Init Command.
      */
     public void init() {
-        currentDir = System.getProperty("user.dir");
-        cwd = Utils.join(currentDir);
-        gitFile = Utils.join(cwd, ".gitlet");
-        repoFile = Utils.join(gitFile, "/repo");
         if (!gitFile.exists()) {
             gitFile.mkdir();
         } else {
@@ -51,27 +91,16 @@ public class Repo implements Serializable {
                     + "version-control system already "
                     + "exists in the current directory.");
         }
-        commitFile = Utils.join(gitFile, "commits");
         commitFile.mkdir();
         Commit initCommit = new Commit("initial commit",
-                null, null, false);
+                null, null, null, false);
         String initialSha1 = initCommit.sha();
-        File sha1File = Utils.join(commitFile, initialSha1);
-        try {
-            sha1File.createNewFile();
-        } catch (java.io.IOException e) {
-            System.out.println("cannot create new file");
-        }
-        Utils.writeObject(sha1File, initCommit);
-        _head = "master";
-        _branches = new HashMap<>();
-        _branches.put("master", initialSha1);
-        stagingFile = Utils.join(gitFile, "staging");
-        stagingFile.mkdir();
-        blobFile = Utils.join(gitFile, "blobs");
+        objects().writeCommit(initialSha1, initCommit.encode());
+        graph().add(initCommit, this);
+        indexMessage(initCommit);
+        refs().setHead("master");
+        refs().put("master", initialSha1);
         blobFile.mkdir();
-        stagingArea = new StagingArea();
-        _untrackedFiles = new HashMap<>();
     }
 
     /**
@@ -84,27 +113,26 @@ public class Repo implements Serializable {
         if (!thisFile.exists()) {
             throw new GitletException("File does not exist.");
         }
-        String blob = "B" + Utils.sha1(
-                Utils.readContentsAsString(thisFile));
+        blobFile.mkdir();
+        String blob = unchangedBlob(name);
+        if (blob == null) {
+            blob = objects().insertBlob(thisFile);
+            statCache().update(name, thisFile, blob);
+        }
         Commit mostRecent = getCommit(getHeadCommitSha());
         HashMap mrFiles = mostRecent.getFileMap();
-        blobFile.mkdir();
-        stagingFile.mkdir();
         if (mrFiles == null || mrFiles.isEmpty()
                 || !mrFiles.containsKey(name)
                 || !mrFiles.get(name).equals(blob)) {
-            stagingArea.toBeAdded.put(name, blob);
-            String contents = Utils.readContentsAsString(thisFile);
-            File contentFile = Utils.join(stagingFile, name);
-            Utils.writeContents(contentFile, contents);
+            staging().toBeAdded.put(name, blob);
         } else if (mrFiles.containsKey(name)
-                && stagingArea.toBeAdded.containsKey(name)) {
+                && staging().toBeAdded.containsKey(name)) {
             if (mrFiles.get(name).equals(blob)) {
-                stagingArea.delete(name);
+                staging().delete(name);
             }
         }
         _untrackedFiles.remove(name);
-        stagingArea.removedFiles.remove(name);
+        staging().removedFiles.remove(name);
     }
 
 
@@ -130,26 +158,19 @@ public class Repo implements Serializable {
         }
         if (mrFiles != null) {
             if (mrFiles.containsKey(fileName)) {
-                thisFile.delete();
+                deleteWorkingFile(fileName);
                 changed = true;
             }
         }
-        List<String> stagingFiles = Utils.plainFilenamesIn(stagingFile);
-        if (stagingFiles != null) {
-            for (String file : stagingFiles) {
-                if (fileName.equals(file)) {
-                    File deleteMe = Utils.join(stagingFile, file);
-                    deleteMe.delete();
-                    stagingArea.toBeAdded.remove(fileName);
-                    changed = true;
-                }
-            }
+        if (staging().toBeAdded.containsKey(fileName)) {
+            staging().delete(fileName);
+            changed = true;
         }
         if (!changed) {
             throw new GitletException("No reason to remove the file.");
         } else {
             if (mostRecent.getFileMap().containsKey(fileName)) {
-                stagingArea.removedFiles.add(fileName);
+                staging().removedFiles.add(fileName);
             }
         }
     }
@@ -165,93 +186,107 @@ public class Repo implements Serializable {
             throw new GitletException("Please enter a commit message.");
         }
         Commit mostRecent = getCommit(getHeadCommitSha());
-        HashMap<String, String> trackedFiles = mostRecent.getFileMap();
-        if (trackedFiles == null) {
-            trackedFiles = new HashMap<>();
-        }
-        if (stagingArea.toBeAdded.size() > 0 || _untrackedFiles.size() > 0) {
-            for (String fileName : stagingArea.toBeAdded.keySet()) {
-                trackedFiles.put(fileName,
-                        stagingArea.toBeAdded.get(fileName));
-                File thisFile = Utils.join(stagingFile, fileName);
-                String contents = Utils.readContentsAsString(thisFile);
-                String blob = stagingArea.toBeAdded.get(fileName);
-                File newBlob = Utils.join(blobFile, blob);
-                Utils.writeObject(newBlob, contents);
-            }
-            for (String fileName : _untrackedFiles.keySet()) {
-                _untrackedFiles.remove(fileName);
-            }
-        }
-        if (stagingArea.removedFiles.size() > 0) {
-            for (String fileName : stagingArea.removedFiles) {
+        HashMap<String, String> trackedFiles =
+            new HashMap<>(mostRecent.getFileMap());
+        trackedFiles.putAll(staging().toBeAdded);
+        if (staging().removedFiles.size() > 0) {
+            for (String fileName : staging().removedFiles) {
                 trackedFiles.remove(fileName);
-                Utils.restrictedDelete(Utils.join(cwd, fileName));
+                deleteWorkingFile(fileName);
             }
         }
-        if (stagingArea.toBeAdded.size() == 0
-                && stagingArea.removedFiles.size() == 0) {
+        if (staging().toBeAdded.size() == 0
+                && staging().removedFiles.size() == 0) {
             throw new GitletException("No changes added to the commit.");
         }
-        Commit newCommit = new Commit(msg, mostRecent, trackedFiles,
-                false);
+        Commit newCommit = new Commit(msg, mostRecent.sha(),
+                writeTree(mostRecent, trackedFiles), trackedFiles, false);
         String newCommID = newCommit.sha();
-        File newCommFile = Utils.join(commitFile, newCommID);
-        Utils.writeObject(newCommFile, newCommit);
-        stagingArea.reset();
+        objects().writeCommit(newCommID, newCommit.encode());
+        graph().add(newCommit, this);
+        indexMessage(newCommit);
+        staging().reset();
         _untrackedFiles = new HashMap<>();
-        _branches.put(_head, newCommID);
+        refs().put(refs().head(), newCommID);
     }
 
 
     /**
      * Same thing as commit but for merge.
      * @param msg m
-     * @param p1 p1
-     * @param p2 p2
+     * @param p1 sha1 ID of the current head, the first parent
+     * @param p2 sha1 ID of the merged-in head, the second parent
      */
     public void mergeCommit(String msg, String p1, String p2) {
         if (msg.trim().equals("")) {
             throw new GitletException("Please enter a commit message.");
         }
-        Commit mostRecent = getCommit(p2);
-        HashMap<String, String> trackedFiles = mostRecent.getFileMap();
-        if (trackedFiles == null) {
-            trackedFiles = new HashMap<>();
-        }
-        if (stagingArea.toBeAdded.size() > 0 || _untrackedFiles.size() > 0) {
-            for (String fileName : stagingArea.toBeAdded.keySet()) {
-                trackedFiles.put(fileName,
-                        stagingArea.toBeAdded.get(fileName));
-                File thisFile = Utils.join(stagingFile, fileName);
-                String contents = Utils.readContentsAsString(thisFile);
-                String blob = stagingArea.toBeAdded.get(fileName);
-                File newBlob = Utils.join(blobFile, blob);
-                Utils.writeObject(newBlob, contents);
-            }
-            for (String fileName : _untrackedFiles.keySet()) {
-                _untrackedFiles.remove(fileName);
-            }
-        }
-        if (stagingArea.removedFiles.size() > 0) {
-            for (String fileName : stagingArea.removedFiles) {
+        Commit mostRecent = getCommit(p1);
+        HashMap<String, String> trackedFiles =
+            new HashMap<>(mostRecent.getFileMap());
+        trackedFiles.putAll(staging().toBeAdded);
+        if (staging().removedFiles.size() > 0) {
+            for (String fileName : staging().removedFiles) {
                 trackedFiles.remove(fileName);
-                Utils.restrictedDelete(Utils.join(cwd, fileName));
+                deleteWorkingFile(fileName);
             }
         }
-        if (stagingArea.toBeAdded.size() == 0
-                && stagingArea.removedFiles.size() == 0) {
+        if (staging().toBeAdded.size() == 0
+                && staging().removedFiles.size() == 0) {
             throw new GitletException("No changes added to the commit.");
         }
-        Commit newCommit = new MergeCommit(msg, mostRecent, trackedFiles,
+        Commit newCommit = new MergeCommit(msg,
+                writeTree(mostRecent, trackedFiles), trackedFiles,
                 true, new String[]{p1, p2});
         String newCommID = newCommit.sha();
-        File newCommFile = Utils.join(commitFile, newCommID);
-        Utils.writeObject(newCommFile, newCommit);
+        objects().writeCommit(newCommID, newCommit.encode());
+        graph().add(newCommit, this);
+        indexMessage(newCommit);
 
-        stagingArea.reset();
+        staging().reset();
         _untrackedFiles = new HashMap<>();
-        _branches.put(_head, newCommID);
+        refs().put(refs().head(), newCommID);
+    }
+
+    /**
+     * Writes the trees of a new commit whose parent is PARENT and which
+     * tracks TRACKEDFILES, and returns the ID of its top tree, or null if
+     * it tracks no files. Only the directories holding staged changes are
+     * rewritten, unless PARENT has no tree to share.
+     * @param parent the first parent of the new commit
+     * @param trackedFiles the files of the new commit
+     */
+    private String writeTree(Commit parent,
+                             HashMap<String, String> trackedFiles) {
+        if (parent.tree() == null) {
+            return Tree.write(objects(), null, trackedFiles);
+        }
+        HashMap<String, String> changes =
+            new HashMap<>(staging().toBeAdded);
+        for (String fileName : staging().removedFiles) {
+            changes.put(fileName, null);
+        }
+        return Tree.write(objects(), parent.tree(), changes);
+    }
+
+    /**
+     * Deletes working file NAME, if it is a plain file, then any
+     * directories left empty between it and the working directory.
+     * @param name a '/'-separated path in the working directory
+     */
+    private void deleteWorkingFile(String name) {
+        File f = Utils.join(cwd, name);
+        if (name.equals(".gitlet") || name.startsWith(".gitlet/")
+                || !f.isFile() || !f.delete()) {
+            return;
+        }
+        for (File dir = f.getParentFile(); !dir.equals(cwd);
+             dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
     }
 
     /**
@@ -259,16 +294,10 @@ public class Repo implements Serializable {
      */
     public void log() {
         String head = getHeadCommitSha();
-        Commit first = getCommit(head);
-        if (first._merge) {
-            first = getMergeCommit(head);
-        }
-        while (first != null) {
-            printACommit(head);
-            if (first.parent() != null) {
-                head = first.parent().sha();
-            }
-            first = first.parent();
+        while (head != null) {
+            printACommit(getCommit(head));
+            List<String> parents = parentsOf(head);
+            head = parents.isEmpty() ? null : parents.get(0);
         }
     }
 
@@ -276,66 +305,67 @@ public class Repo implements Serializable {
      * Prints log of ALL commits.
      */
     public void globalLog() {
-        List<String> files = Utils.plainFilenamesIn(commitFile);
-        for (String commitID : files) {
-            printACommit(commitID);
-        }
+        globalLog(0, Integer.MAX_VALUE);
     }
 
     /**
-     * Print commit given sha1 id of commit.
-     * @param uid uid
+     * Prints the log of all commits in the order they were made, skipping
+     * the first SKIP and printing at most LIMIT, from one sequential read
+     * of the commit journal.
+     * @param skip commits skipped
+     * @param limit most commits printed
      */
-    public void printACommit(String uid) {
-        Commit comm = getCommit(uid);
-        if (comm._merge) {
-            printMergeCommit(uid);
-        } else {
-            if (comm.parent() != null
-                    && comm.parent().sha().length() > 1) {
-                System.out.println("===");
-                System.out.println("commit " + uid);
-                System.out.println("Date: " + comm.timestamp());
-                System.out.println(comm.getMessage());
-                System.out.println();
-            } else {
-                System.out.println("===");
-                System.out.println("commit " + uid);
-                System.out.println("Date: " + comm.timestamp());
-                System.out.println(comm.getMessage());
-                System.out.println();
+    public void globalLog(int skip, int limit) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                Utils.BUFFER));
+        journal().read(skip, limit, e -> {
+            out.println("===");
+            out.println("commit " + e._id);
+            if (e._parents.size() > 1) {
+                out.println("Merge: " + e._parents.get(0).substring(0, 7)
+                        + " " + e._parents.get(1).substring(0, 7));
             }
-        }
+            out.println("Date: " + Commit.timestamp(e._time, e._zone));
+            out.println(e._message);
+            out.println();
+        });
+        out.flush();
     }
 
     /**
-     * Print a commit, but in merge format.
-     * @param uid uid
+     * Print the given commit.
+     * @param comm the commit
      */
-    public void printMergeCommit(String uid) {
-        MergeCommit comm = getMergeCommit(uid);
-        assert comm._merge;
-        if (comm.parent() != null && comm.parent().sha().length() > 1) {
-            System.out.println("===");
-            System.out.println("commit " + comm.sha());
-            String[] split = comm.getMessage().split(" ");
-            String shortb1 = split[1];
-            String shortb2 = split[3].replace(".", "");
-            String shortP1 = _branches.get(shortb1).substring(0, 7);;
-            String shortP2 = _branches.get(shortb2).substring(0, 7);;
-            System.out.println("Merge: " + shortP1 + " " + shortP2);
-            System.out.println("Date: " + comm.timestamp());
-            System.out.println(comm.getMessage());
-            System.out.println();
+    public void printACommit(Commit comm) {
+        if (comm._merge) {
+            printMergeCommit(comm);
         } else {
             System.out.println("===");
-            System.out.println("commit " + uid);
+            System.out.println("commit " + comm.sha());
             System.out.println("Date: " + comm.timestamp());
             System.out.println(comm.getMessage());
             System.out.println();
         }
     }
 
+    /**
+     * Print a commit, but in merge format.
+     * @param comm the merge commit
+     */
+    public void printMergeCommit(Commit comm) {
+        assert comm._merge;
+        List<String> parents = comm.parents();
+        System.out.println("===");
+        System.out.println("commit " + comm.sha());
+        String shortP1 = parents.get(0).substring(0, 7);
+        String shortP2 = parents.get(1).substring(0, 7);
+        System.out.println("Merge: " + shortP1 + " " + shortP2);
+        System.out.println("Date: " + comm.timestamp());
+        System.out.println(comm.getMessage());
+        System.out.println();
+    }
+
     /**
      * ----------------------------------FIND---------------------
      * Prints out the ids of all commits that have the given commit message,
@@ -347,20 +377,97 @@ public class Repo implements Serializable {
      * @param msg msg
      */
     public void findCommand(String msg) {
-        boolean found = false;
-        List<String> shasOfCommits = Utils.plainFilenamesIn(commitFile);
-        for (String sha : shasOfCommits) {
-            Commit thisCommit = getCommit(sha);
-            if (thisCommit.getMessage().equals(msg)) {
-                System.out.println(sha);
-                found = true;
+        findCommand("", msg);
+    }
+
+    /**
+     * Prints the IDs of the commits whose messages match PATTERN in
+     * MODE: equal to it if MODE is empty, containing it if MODE is
+     * --contains, and matching it as a regular expression somewhere if
+     * MODE is --regex.
+     * @param mode how to match
+     * @param pattern the message, substring or regular expression
+     */
+    public void findCommand(String mode, String pattern) {
+        TreeSet<String> found = new TreeSet<>();
+        MessageIndex index = messageIndex();
+        if (mode.isEmpty()) {
+            found.addAll(index.exact(pattern));
+        } else if (mode.equals("--contains")) {
+            found.addAll(index.containing(pattern).keySet());
+        } else if (mode.equals("--regex")) {
+            Pattern regex;
+            try {
+                regex = Pattern.compile(pattern);
+            } catch (PatternSyntaxException excp) {
+                throw new GitletException("Invalid regular expression.");
             }
+            index.all().forEach((id, message) -> {
+                if (regex.matcher(message).find()) {
+                    found.add(id);
+                }
+            });
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+        for (String sha : found) {
+            System.out.println(sha);
         }
-        if (!found) {
+        if (found.isEmpty()) {
             throw new GitletException("Found no commit with that message.");
         }
     }
 
+    /**
+     * Returns the message index of this repo, building it from every
+     * commit if it does not yet exist.
+     */
+    MessageIndex messageIndex() {
+        MessageIndex index = new MessageIndex(gitFile);
+        if (!index.exists()) {
+            TreeMap<String, String> messages = new TreeMap<>();
+            for (String id : objects().commitIds()) {
+                messages.put(id, Commit.decode(id, objects().readCommit(id))
+                        .getMessage());
+            }
+            index.build(messages);
+        }
+        return index;
+    }
+
+    /**
+     * Adds new commit C to the message index and the commit journal, if
+     * they exist.
+     * @param c the commit
+     */
+    private void indexMessage(Commit c) {
+        MessageIndex index = new MessageIndex(gitFile);
+        if (index.exists()) {
+            index.add(c.sha(), c.getMessage());
+        }
+        CommitJournal journal = new CommitJournal(gitFile);
+        if (journal.exists()) {
+            journal.append(c);
+        }
+    }
+
+    /**
+     * Returns the commit journal of this repo, building it from every
+     * commit, oldest first, if it does not yet exist.
+     */
+    CommitJournal journal() {
+        CommitJournal journal = new CommitJournal(gitFile);
+        if (!journal.exists()) {
+            ArrayList<Commit> commits = new ArrayList<>();
+            for (String id : objects().commitIds()) {
+                commits.add(Commit.decode(id, objects().readCommit(id)));
+            }
+            commits.sort(Comparator.comparingLong(Commit::time)
+                    .thenComparing(Commit::sha));
+            journal.build(commits);
+        }
+        return journal;
+    }
     /**
      * -------------STATUS------------
      * Displays what branches currently exist, and marks the current
@@ -369,8 +476,8 @@ public class Repo implements Serializable {
      */
     public void status() {
         System.out.println("=== Branches ===");
-        for (String branch : _branches.keySet()) {
-            if (branch.equals(_head)) {
+        for (String branch : refs().names()) {
+            if (branch.equals(refs().head())) {
                 System.out.println("*" + branch);
             } else {
                 System.out.println(branch);
@@ -378,15 +485,13 @@ public class Repo implements Serializable {
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        List<String> stagingFiles = Utils.plainFilenamesIn(stagingFile);
-        if (stagingFiles != null) {
-            for (String fileName : stagingFiles) {
-                System.out.println(fileName);
-            }
+        TreeSet<String> staged = new TreeSet<>(staging().toBeAdded.keySet());
+        for (String fileName : staged) {
+            System.out.println(fileName);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        List<String> toDelete = stagingArea.removedFiles;
+        List<String> toDelete = staging().removedFiles;
         if (toDelete != null) {
             for (String fileName : toDelete) {
                 if (!Utils.join(cwd, fileName).exists()) {
@@ -422,15 +527,11 @@ public class Repo implements Serializable {
         if (trackedFiles.containsKey(fileName)) {
             File f = Utils.join(cwd, fileName);
             String blobFileName = trackedFiles.get(fileName);
-            File g = Utils.join(blobFile, blobFileName);
-            String blah = Utils.readObject(g, String.class);
-            String blobContents = Utils.readContentsAsString(g);
-            Utils.writeContents(f, blah);
+            objects().copyBlob(blobFileName, f);
+            statCache().update(fileName, f, blobFileName);
         } else {
             throw new GitletException("File does not exist in that commit.");
         }
-
-        _branches.put(_head, commID);
     }
 
     /**
@@ -442,16 +543,15 @@ public class Repo implements Serializable {
         if (id.length() == Utils.UID_LENGTH) {
             return id;
         }
-        File[] commitFiles = commitFile.listFiles();
-        assert commitFiles != null;
-        for (File file : commitFiles) {
-            if (file.getName().contains(id)) {
-                return file.getName();
-            }
+        List<String> matches = id.matches("[0-9a-f]+")
+            ? objects().commitsWithPrefix(id, 2) : new ArrayList<>();
+        if (matches.isEmpty()) {
+            throw new GitletException("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw new GitletException("Ambiguous commit id prefix.");
         }
-        throw new GitletException("No commit with that id exists.");
+        return matches.get(0);
     }
-
     /**
      * Checkout, given a branchName
      * If a working file is untracked in the current branch and would be
@@ -459,49 +559,165 @@ public class Repo implements Serializable {
      * @param branchName bname
      */
     public void checkout(String branchName) {
-        if (!_branches.containsKey(branchName)) {
+        if (!refs().contains(branchName)) {
             throw new GitletException("No such branch exists.");
         }
-        if (_head.equals(branchName)) {
+        if (refs().head().equals(branchName)) {
             throw new GitletException(
                     "No need to checkout the current branch.");
         }
-        String newHeadCommID = _branches.get(branchName);
-        Commit newHeadComm = getCommit(newHeadCommID);
-        Commit oldHead = getCommit(getHeadCommitSha());
-        HashMap<String, String> newHeadCommFileMap = newHeadComm.getFileMap();
+        String newHeadCommID = refs().get(branchName);
         checkForUntracked(newHeadCommID);
-        for (String fileName : Utils.plainFilenamesIn(cwd)) {
-            if (newHeadCommFileMap == null
-                    || (!newHeadCommFileMap.containsKey(fileName)
-                    && !fileName.equals(".gitlet"))) {
-                stagingArea.toBeAdded.remove(fileName);
-            } else {
-                boolean b = !newHeadCommFileMap.containsKey(fileName);
-                if (b && !fileName.equals(".gitlet")) {
-                    Utils.restrictedDelete(Utils.join(cwd, fileName));
+        if (!newHeadCommID.equals(getHeadCommitSha())) {
+            checkoutCommit(getCommit(getHeadCommitSha()),
+                           getCommit(newHeadCommID));
+        }
+        staging().reset();
+        refs().setHead(branchName);
+    }
+
+    /**
+     * Makes the working files those of commit TO, where FROM is the head
+     * commit, after checkForUntracked has vetted TO. Only the paths that
+     * differ between the two commits, that are dirty or staged in the
+     * working directory, or that TO tracks but are missing from it, are
+     * looked at, and of those only the files whose contents differ from
+     * TO's are written, and the files tracked in FROM but not TO deleted.
+     * Untracked files are left alone. With the system property
+     * gitlet.trace set, reports the number of files written and deleted
+     * on the standard error.
+     * @param from the head commit
+     * @param to the commit to check out
+     */
+    private void checkoutCommit(Commit from, Commit to) {
+        HashMap<String, String> current = from.getFileMap();
+        HashMap<String, String> target = to.getFileMap();
+        TreeSet<String> paths = new TreeSet<>(diff(from, to).keySet());
+        paths.addAll(_untrackedFiles.keySet());
+        paths.addAll(staging().toBeAdded.keySet());
+        paths.addAll(staging().removedFiles);
+        for (String name : target.keySet()) {
+            if (!_worktree.containsKey(name)) {
+                paths.add(name);
+            }
+        }
+        ArrayList<String> deletions = new ArrayList<>();
+        TreeMap<String, String> writes = new TreeMap<>();
+        for (String name : paths) {
+            String blob = target.get(name);
+            String working = _worktree.get(name);
+            if (blob == null && current.containsKey(name)
+                    && Utils.join(cwd, name).isFile()) {
+                deletions.add(name);
+            } else if (blob != null
+                    && (working == null || !blob.equals(working))) {
+                writes.put(name, blob);
+            }
+        }
+        writeFiles(writes, deletions);
+        if (Boolean.getBoolean("gitlet.trace")) {
+            System.err.printf("checkout: %d files written, %d deleted%n",
+                    writes.size(), deletions.size());
+        }
+    }
+
+    /**
+     * Writes FILES, a map from path to blob ID, into the working
+     * directory with a CheckoutWriter, deleting the working files
+     * DELETIONS as the new files are moved into place. If any file
+     * cannot be written or deleted, nothing is changed.
+     * @param files the files to write
+     * @param deletions paths of the files to delete
+     */
+    private void writeFiles(Map<String, String> files,
+                            List<String> deletions) {
+        CheckoutWriter writer =
+            new CheckoutWriter(cwd, gitFile, objects(), files);
+        writer.prepare();
+        ArrayList<String> deleted = new ArrayList<>();
+        for (String name : deletions) {
+            if (!name.equals(".gitlet") && !name.startsWith(".gitlet/")) {
+                deleted.add(name);
+            }
+        }
+        List<String> names = writer.install(deleted);
+        for (int i = 0; i < names.size(); i += 1) {
+            statCache().update(names.get(i), Utils.join(cwd, names.get(i)),
+                               writer.blob(i));
+        }
+    }
+
+    /**
+     * Returns the differences between the files of commits FROM and TO:
+     * a map from the path of each file added or changed in TO to its blob
+     * ID there, and of each file only in FROM to null. Subtrees the two
+     * commits share are skipped.
+     * @param from a commit
+     * @param to another commit
+     */
+    TreeMap<String, String> diff(Commit from, Commit to) {
+        return objects().diff(from, to);
+    }
+
+    /**
+     * Prints the differences between the files of commit COMMITS[0] and
+     * those of commit COMMITS[1], or of the working directory if there is
+     * no second commit, the first defaulting to the head commit. The
+     * working directory's files are those tracked by either commit or
+     * the head, or staged; untracked files are left out. The changed
+     * paths come from the commits' trees and the stat cache, so with
+     * MODE --name-only or --stat, which print only the paths and how
+     * each changed, no file contents are read. With MODE null, prints
+     * unified diffs, one file at a time, reading at most
+     * DiffPrinter.LIMIT + 1 bytes of each version of a file.
+     * @param mode --name-only, --stat, or null
+     * @param commits zero, one or two commit IDs
+     */
+    public void diffCommand(String mode, String[] commits) {
+        Commit from = getCommit(commits.length == 0 ? getHeadCommitSha()
+                                : convertShortenedID(commits[0]));
+        HashMap<String, String> old = from.getFileMap();
+        boolean worktree = commits.length < 2;
+        TreeMap<String, String> changes;
+        if (worktree) {
+            changes = new TreeMap<>();
+            TreeMap<String, String> files = scanWorkingTree();
+            TreeSet<String> paths = new TreeSet<>(old.keySet());
+            paths.addAll(getCommit(getHeadCommitSha()).getFileMap()
+                         .keySet());
+            paths.addAll(staging().toBeAdded.keySet());
+            for (String name : paths) {
+                String blob = files.get(name);
+                if (blob == null ? old.containsKey(name)
+                        : !blob.equals(old.get(name))) {
+                    changes.put(name, blob);
                 }
             }
-            if (oldHead.getFileMap().containsKey(fileName)
-                    && !newHeadCommFileMap.containsKey(fileName)) {
-                Utils.restrictedDelete(Utils.join(cwd, fileName));
-            }
-        }
-        if (newHeadCommFileMap != null
-                && !_branches.get(_head)
-                .equals(_branches.get(branchName))) {
-            for (String file : newHeadCommFileMap.keySet()) {
-                File f = Utils.join(blobFile,
-                        newHeadCommFileMap.get(file));
-                if (f.exists()) {
-                    String contents = Utils.readObject(f, String.class);
-                    File editMe = Utils.join(cwd, file);
-                    Utils.writeContents(editMe, contents);
+        } else {
+            changes = diff(from,
+                           getCommit(convertShortenedID(commits[1])));
+        }
+        DiffPrinter out = new DiffPrinter();
+        if ("--name-only".equals(mode)) {
+            out.names(changes);
+        } else if ("--stat".equals(mode)) {
+            out.stat(changes, old);
+        } else {
+            int limit = DiffPrinter.LIMIT + 1;
+            for (Map.Entry<String, String> e : changes.entrySet()) {
+                String name = e.getKey();
+                byte[] to = null;
+                if (e.getValue() != null) {
+                    to = worktree
+                        ? Utils.readContents(Utils.join(cwd, name), limit)
+                        : objects().readBlob(e.getValue(), limit);
                 }
+                out.unified(name, old.containsKey(name)
+                            ? objects().readBlob(old.get(name), limit)
+                            : null, to);
             }
         }
-        stagingArea.reset();
-        _head = branchName;
+        out.flush();
     }
 
     /**
@@ -524,10 +740,9 @@ public class Repo implements Serializable {
         if (_untrackedFiles.size() > 0) {
             for (String fileName : _untrackedFiles.keySet()) {
                 if (newComm.getFileMap().containsKey(fileName)) {
-                    File myFile = Utils.join(cwd, fileName);
-                    String mycontents = Utils.sha1("B" + myFile);
-                    if (!newComm.getFileMap().get(fileName)
-                            .equals(mycontents)) {
+                    String mycontents = _worktree.get(fileName);
+                    if (mycontents != null && !newComm.getFileMap()
+                            .get(fileName).equals(mycontents)) {
                         throw new GitletException(msg);
                     }
                 }
@@ -540,11 +755,11 @@ public class Repo implements Serializable {
      * @param branchName bname
      */
     public void branchCommand(String branchName) {
-        if (_branches.containsKey(branchName)) {
+        if (refs().contains(branchName)) {
             throw new GitletException("A branch with that "
                     + "name already exists.");
         } else {
-            _branches.put(branchName, getHeadCommitSha());
+            refs().put(branchName, getHeadCommitSha());
         }
     }
 
@@ -553,13 +768,13 @@ public class Repo implements Serializable {
      * @param branchName bname
      */
     public void removeBranch(String branchName) {
-        if (!_branches.containsKey(branchName)) {
+        if (!refs().contains(branchName)) {
             throw new GitletException("A branch with that "
                     + "name does not exist.");
-        } else if (branchName.equals(_head)) {
+        } else if (branchName.equals(refs().head())) {
             throw new GitletException("Cannot remove the current branch.");
         } else {
-            _branches.remove(branchName);
+            refs().remove(branchName);
         }
     }
 
@@ -575,16 +790,70 @@ public class Repo implements Serializable {
      * @param commID cID
      */
     public void resetCommand(String commID) {
+        resetCommand("--hard", commID);
+    }
+
+    /**
+     * Moves the current branch's head to commit COMMID in MODE. With
+     * --hard, as for resetCommand(COMMID). With --mixed, the staging area
+     * is cleared but the working directory is not touched, so changes
+     * from the old head show up as unstaged modifications. With --soft,
+     * only the head moves: the staging area is rewritten to hold the
+     * differences between COMMID and what the old head plus the staging
+     * area would have committed, and the working directory is not
+     * touched. The target commit is read once, and the files compared
+     * are those the two commits' trees differ in plus those staged.
+     * @param mode --soft, --mixed or --hard
+     * @param commID cID
+     */
+    public void resetCommand(String mode, String commID) {
         commID = convertShortenedID(commID);
-        Commit thisCommit = getCommit(commID);
-        HashMap<String, String> commitFiles = thisCommit.getFileMap();
-        checkForUntracked(commID);
-        for (String fileName : commitFiles.keySet()) {
-            String[] args = {commID, "--", fileName};
-            checkout(args);
+        Commit target = getCommit(commID);
+        Commit head = getCommit(getHeadCommitSha());
+        if (mode.equals("--hard")) {
+            checkForUntracked(commID);
+            checkoutCommit(head, target);
+            staging().reset();
+        } else if (mode.equals("--mixed")) {
+            staging().reset();
+        } else if (mode.equals("--soft")) {
+            softReset(head, target);
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+        refs().put(refs().head(), commID);
+    }
+
+    /**
+     * Rewrites the staging area so that committing it on top of TARGET
+     * would give the same files as committing it on top of HEAD.
+     * @param head the current head commit
+     * @param target the commit the head is moving to
+     */
+    private void softReset(Commit head, Commit target) {
+        HashMap<String, String> index = new HashMap<>();
+        TreeSet<String> paths = new TreeSet<>(diff(target, head).keySet());
+        paths.addAll(staging().toBeAdded.keySet());
+        paths.addAll(staging().removedFiles);
+        for (String name : paths) {
+            String blob = staging().toBeAdded.get(name);
+            if (blob == null && !staging().removedFiles.contains(name)) {
+                blob = head.getFileMap().get(name);
+            }
+            if (blob != null) {
+                index.put(name, blob);
+            }
+        }
+        HashMap<String, String> tracked = target.getFileMap();
+        staging().reset();
+        for (String name : paths) {
+            String blob = index.get(name);
+            if (blob == null && tracked.containsKey(name)) {
+                staging().removedFiles.add(name);
+            } else if (blob != null && !blob.equals(tracked.get(name))) {
+                staging().toBeAdded.put(name, blob);
+            }
         }
-        _branches.put(_head, commID);
-        stagingArea.reset();
     }
 
 
@@ -594,7 +863,7 @@ public class Repo implements Serializable {
      * @return String
      */
     public String getHeadCommitSha() {
-        return _branches.get(_head);
+        return refs().get(refs().head());
     }
 
 
@@ -603,17 +872,313 @@ public class Repo implements Serializable {
      * @param sha1 sha
      */
     public Commit getCommit(String sha1) {
-        File f = Utils.join(commitFile, sha1);
-        if (f.exists()) {
-            Commit c = Utils.readObject(f, Commit.class);
-            if (c._merge) {
-                return getMergeCommit(sha1);
-            } else {
-                return c;
+        Commit c = commitCache().get(sha1);
+        if (c == null) {
+            byte[] bytes = objects().readCommit(sha1);
+            if (bytes == null) {
+                throw new GitletException("No commit with that id exists.");
             }
+            c = Commit.decode(sha1, bytes, this::treeFiles);
+            commitCache().put(sha1, c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the files under tree ID, a map from path to blob ID, from
+     * the tree cache if possible. The map must not be changed.
+     * @param id a tree ID
+     */
+    HashMap<String, String> treeFiles(String id) {
+        HashMap<String, String> files = treeCache().get(id);
+        if (files == null) {
+            files = Tree.flatten(objects(), id);
+            treeCache().put(id, files);
+        }
+        return files;
+    }
+
+    /**
+     * Returns a map from the path of each plain file in the working
+     * directory and its subdirectories to its blob ID. If a file-system
+     * monitor can say which files have changed since the stat cache last
+     * covered them all, only those, and the files under any directories
+     * among them, are looked at; otherwise the whole tree is.
+     */
+    private TreeMap<String, String> scanWorkingTree() {
+        StatCache cache = statCache();
+        FsMonitor.Changes changes = monitored();
+        TreeScanner scanner = new TreeScanner(cwd, cache);
+        TreeMap<String, String> result;
+        if (changes.names() == null) {
+            result = scanner.scan(Utils.plainFilesUnder(cwd));
+            cache.retainAll(result.keySet());
         } else {
-            throw new GitletException("No commit with that id exists.");
+            result = cache.ids();
+            TreeSet<String> names = new TreeSet<>();
+            for (String name : changes.names()) {
+                names.add(name);
+                names.addAll(result.subMap(name + "/", name + "0").keySet());
+                File f = Utils.join(cwd, name);
+                if (f.isDirectory()) {
+                    for (String path : Utils.plainFilesUnder(f)) {
+                        names.add(name + "/" + path);
+                    }
+                }
+            }
+            result.keySet().removeAll(names);
+            TreeMap<String, String> changed =
+                scanner.scan(new ArrayList<>(names));
+            for (String name : names) {
+                if (!changed.containsKey(name)) {
+                    cache.remove(name);
+                }
+            }
+            result.putAll(changed);
+        }
+        cache.setToken(changes.token());
+        return result;
+    }
+
+    /**
+     * Returns the changes the file-system monitor reports since the stat
+     * cache's token, asking it only once per command, since each query
+     * waits for the monitor to catch up. Files this command writes
+     * itself must have their stat cache entries updated or removed, as
+     * the result does not show them.
+     */
+    private FsMonitor.Changes monitored() {
+        if (_monitored == null) {
+            _monitored = FsMonitor.query(gitFile, statCache().token());
+        }
+        return _monitored;
+    }
+
+    /**
+     * Returns the blob ID of working file NAME if it is stored and a
+     * file-system monitor vouches that the file has not changed since it
+     * was last hashed, or failing that its stat data in the stat cache
+     * is unchanged, and otherwise null.
+     * @param name the file name
+     */
+    private String unchangedBlob(String name) {
+        String id = null;
+        if (statCache().token() != null) {
+            FsMonitor.Changes changes = monitored();
+            if (changes.names() != null && !changes.changed(name)) {
+                id = statCache().get(name);
+            }
+        }
+        if (id == null) {
+            id = statCache().lookup(name, Utils.join(cwd, name));
+        }
+        if (id == null || !objects().hasBlob(id)) {
+            return null;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the stat cache of this repo.
+     */
+    StatCache statCache() {
+        if (_statCache == null) {
+            _statCache = new StatCache(Utils.join(gitFile, "index"));
+        }
+        return _statCache;
+    }
+
+    /**
+     * Returns a rough estimate of the memory this repo and its caches
+     * occupy, in bytes: a multiple of the size of the files they were
+     * read from, plus the objects cached.
+     */
+    long footprint() {
+        long bytes = stagingFile.length()
+            + Utils.join(gitFile, "index").length()
+            + Utils.join(gitFile, "commit-graph").length()
+            + Utils.join(gitFile, "commit-graph.idx").length();
+        return 4 * bytes + (_objects == null ? 0 : _objects.cachedBytes())
+            + (_commitCache == null ? 0 : _commitCache.weight())
+            + (_treeCache == null ? 0 : _treeCache.weight())
+            + (_blobCache == null ? 0 : _blobCache.weight());
+    }
+
+    /**
+     * Returns the branches of this repo.
+     */
+    Refs refs() {
+        if (_refs == null) {
+            _refs = new Refs(gitFile);
+        }
+        return _refs;
+    }
+
+    /**
+     * Returns the staging area of this repo.
+     */
+    StagingArea staging() {
+        if (stagingArea == null) {
+            stagingArea = StagingArea.read(stagingFile);
+        }
+        return stagingArea;
+    }
+
+    /**
+     * Writes back whatever state this command has changed: the branches,
+     * the staging area and the stat cache. Files that have not changed
+     * are not touched. The file-system monitor's changes are forgotten,
+     * so that the next command asks it afresh.
+     */
+    void save() {
+        _monitored = null;
+        if (_refs != null) {
+            _refs.save();
+        }
+        if (stagingArea != null) {
+            stagingArea.save(stagingFile);
+        }
+        if (_statCache != null) {
+            _statCache.save();
+        }
+    }
+
+    /**
+     * Returns stat data of the directories holding this repo's mutable
+     * state. Every change to that state renames a file into one of them,
+     * so the result changes whenever another process changes the repo.
+     */
+    long[] stamp() {
+        File[] dirs = {gitFile, Utils.join(gitFile, "refs", "heads"),
+                       Utils.join(gitFile, "pack")};
+        long[] result = new long[dirs.length];
+        for (int i = 0; i < dirs.length; i += 1) {
+            try {
+                result[i] = Files.getLastModifiedTime(dirs[i].toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            } catch (IOException excp) {
+                result[i] = -1;
+            }
         }
+        return result;
+    }
+
+    /**
+     * Returns the contents of blob ID, from the blob cache if possible.
+     * @param id blob ID
+     */
+    byte[] readBlob(String id) {
+        byte[] contents = blobCache().get(id);
+        if (contents == null) {
+            contents = objects().readBlob(id);
+            blobCache().put(id, contents);
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the cache of commits read by this repo.
+     */
+    LruCache<Commit> commitCache() {
+        if (_commitCache == null) {
+            _commitCache = new LruCache<>("commit",
+                    (long) Integer.getInteger("gitlet.cache.commits", 8) << 20,
+                    Commit::weight);
+        }
+        return _commitCache;
+    }
+
+    /**
+     * Returns the cache of the file maps of the trees read by this repo.
+     */
+    LruCache<HashMap<String, String>> treeCache() {
+        if (_treeCache == null) {
+            _treeCache = new LruCache<>("tree",
+                    (long) Integer.getInteger("gitlet.cache.trees", 8) << 20,
+                    Repo::weight);
+        }
+        return _treeCache;
+    }
+
+    /**
+     * Returns a rough estimate of the memory file map FILES occupies, in
+     * bytes.
+     * @param files a map from path to blob ID
+     */
+    private static long weight(HashMap<String, String> files) {
+        long result = 64;
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            result += 96 + 2L * (e.getKey().length()
+                    + e.getValue().length());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cache of blobs read by this repo.
+     */
+    LruCache<byte[]> blobCache() {
+        if (_blobCache == null) {
+            _blobCache = new LruCache<>("blob",
+                    (long) Integer.getInteger("gitlet.cache.blobs", 32) << 20,
+                    b -> b.length);
+        }
+        return _blobCache;
+    }
+
+    /**
+     * Returns a report of this repo's cache statistics, one line per
+     * cache.
+     */
+    String cacheStats() {
+        return commitCache() + "\n" + treeCache() + "\n" + blobCache();
+    }
+
+    /**
+     * Returns the object store of this repo.
+     */
+    ObjectStore objects() {
+        if (_objects == null) {
+            _objects = new ObjectStore(gitFile);
+        }
+        return _objects;
+    }
+
+    /**
+     * Moves all loose commits and blobs into the pack, and all loose
+     * branch files into the packed branch table.
+     */
+    public void repackCommand() {
+        objects().repack();
+        refs().compact();
+    }
+
+    /**
+     * Returns the commit-graph index of this repo.
+     */
+    CommitGraph graph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(Utils.join(gitFile, "commit-graph"));
+        }
+        return _graph;
+    }
+
+    /**
+     * Return the sha1 IDs of the parents of commit SHA1, from the commit
+     * graph when it has the commit and from the commit itself otherwise.
+     * @param sha1 sha
+     */
+    List<String> parentsOf(String sha1) {
+        CommitGraph graph = graph();
+        int pos = graph.position(sha1);
+        if (pos == CommitGraph.NONE) {
+            return getCommit(sha1).parents();
+        }
+        List<String> result = new ArrayList<>();
+        for (int parent : graph.parents(pos)) {
+            result.add(graph.id(parent));
+        }
+        return result;
     }
 
     /**
@@ -621,14 +1186,9 @@ public class Repo implements Serializable {
      * @param sha1 sha
      */
     public MergeCommit getMergeCommit(String sha1) {
-        File f = Utils.join(commitFile, sha1);
-        if (f.exists()) {
-            MergeCommit mc = Utils.readObject(f, MergeCommit.class);
-            assert mc._merge;
-            return mc;
-        } else {
-            throw new GitletException("No commit with that id exists.");
-        }
+        MergeCommit mc = (MergeCommit) getCommit(sha1);
+        assert mc._merge;
+        return mc;
     }
 
 
@@ -652,25 +1212,16 @@ public class Repo implements Serializable {
         _untrackedFiles = new HashMap<>();
         String headCommID = getHeadCommitSha();
         Commit headComm = getCommit(headCommID);
-        for (String fileName : Utils.plainFilenamesIn(cwd)) {
+        _worktree = scanWorkingTree();
+        for (String fileName : _worktree.keySet()) {
             File f = Utils.join(cwd, fileName);
             if (!headComm.getFileMap().containsKey(fileName)
                     && !fileName.equals(".gitlet")
-                    && !stagingArea.toBeAdded.containsKey(fileName)
+                    && !staging().toBeAdded.containsKey(fileName)
                     && !fileName.equals(".DS_Store")) {
-                String uTblob = "B" + Utils.sha1(Utils.readContentsAsString(f));
+                String uTblob = _worktree.get(fileName);
                 if (headComm._merge) {
-                    String[] split = headComm.getMessage().split(" ");
-                    String sha1 = _branches.get(split[1]);
-                    sha1 = convertShortenedID(sha1);
-                    String sha2 = _branches.get(split[3].replace(".", ""));
-                    sha2 = convertShortenedID(sha2);
-                    Commit c;
-                    if (headCommID.equals(sha1)) {
-                        c = getCommit(sha2);
-                    } else {
-                        c = getCommit(sha1);
-                    }
+                    Commit c = getCommit(headComm.parents().get(1));
                     if (!c.getFileMap().containsKey(fileName)) {
                         _untrackedFiles.put(fileName, uTblob);
                     }
@@ -678,29 +1229,27 @@ public class Repo implements Serializable {
                     _untrackedFiles.put(fileName, uTblob);
                 }
             } else if (headComm.getFileMap().containsKey(fileName)) {
-                String uTblob = "B" + Utils.sha1(Utils.readContentsAsString(f));
+                String uTblob = _worktree.get(fileName);
                 String oBlob = headComm.getFileMap().get(fileName);
                 if (!uTblob.equals(oBlob) && !uTblob.equals(
-                        stagingArea.toBeAdded.get(fileName))) {
-                    if (!stagingArea.removedFiles.contains(fileName)) {
+                        staging().toBeAdded.get(fileName))) {
+                    if (!staging().removedFiles.contains(fileName)) {
                         _untrackedFiles.put(fileName, uTblob);
                     }
-                } else if (!stagingArea.removedFiles.contains(fileName)
+                } else if (!staging().removedFiles.contains(fileName)
                         && !f.exists()) {
                     _untrackedFiles.put(fileName, uTblob);
                 }
-            } else if (stagingArea.toBeAdded.containsKey(fileName)) {
-                String uTblob = "B"
-                        + Utils.sha1(Utils.readContentsAsString(f));
-                if (!stagingArea.toBeAdded.get(fileName).equals(uTblob)) {
+            } else if (staging().toBeAdded.containsKey(fileName)) {
+                String uTblob = _worktree.get(fileName);
+                if (!staging().toBeAdded.get(fileName).equals(uTblob)) {
                     _untrackedFiles.put(fileName, uTblob);
                 }
             }
         }
-        for (String fileName : stagingArea.toBeAdded.keySet()) {
+        for (String fileName : staging().toBeAdded.keySet()) {
             if (!Utils.join(cwd, fileName).exists()) {
-                String uTblob = "B" + Utils.sha1(Utils.readContentsAsString(
-                        Utils.join(stagingFile, fileName)));
+                String uTblob = staging().toBeAdded.get(fileName);
                 _untrackedFiles.put(fileName, uTblob);
             }
         }
@@ -708,42 +1257,40 @@ public class Repo implements Serializable {
 
     /**
      * For file in untrackedFiles, print them according to the specific class
-     * they are in --> modified, deleted, untracked.
+     * they are in --> modified, deleted, untracked, each section sorted.
      */
     private void printUntrackedFiles() {
         boolean printed = false;
         String headCommID = getHeadCommitSha();
         Commit headComm = getCommit(headCommID);
-        HashSet<String> printlater = new HashSet<>();
+        TreeSet<String> printlater = new TreeSet<>();
         System.out.println("=== Modifications Not Staged For Commit ===");
-        for (String fileName : _untrackedFiles.keySet()) {
+        for (String fileName : new TreeSet<>(_untrackedFiles.keySet())) {
             File thisFile = Utils.join(cwd, fileName);
             if (headComm.getFileMap().containsKey(fileName)) {
                 if (!thisFile.exists()) {
-                    if (!stagingArea.removedFiles.contains(fileName)) {
+                    if (!staging().removedFiles.contains(fileName)) {
                         System.out.println((fileName + " (deleted)"));
                         printed = true;
                     }
                 } else {
-                    String uTblob = "B" + Utils.sha1(
-                            Utils.readContentsAsString(thisFile));
+                    String uTblob = _worktree.get(fileName);
                     String oBlob = headComm.getFileMap().get(fileName);
                     if (!uTblob.equals(oBlob)
                             && !uTblob.equals(
-                                    stagingArea.toBeAdded.get(fileName))) {
+                                    staging().toBeAdded.get(fileName))) {
                         System.out.println(fileName + " (modified)");
                         printed = true;
                     }
                 }
-            } else if (stagingArea.toBeAdded.containsKey(fileName)) {
+            } else if (staging().toBeAdded.containsKey(fileName)) {
                 File f = Utils.join(cwd, fileName);
                 if (!f.exists()) {
                     System.out.println(fileName + " (deleted)");
                     printed = true;
                 } else {
-                    String uTblob = "B"
-                            + Utils.sha1(Utils.readContentsAsString(f));
-                    if (!stagingArea.toBeAdded.get(fileName).equals(uTblob)) {
+                    String uTblob = _worktree.get(fileName);
+                    if (!staging().toBeAdded.get(fileName).equals(uTblob)) {
                         System.out.println(fileName + " (modified)");
                         printed = true;
                     }
@@ -762,12 +1309,6 @@ public class Repo implements Serializable {
         }
         System.out.println();
     }
-    /**
-     * The way we keep track of commits; Hashmap of ...
-     * a String of the sha1 of this commit, and a String
-     * og the sha1 of this parent's commit.
-     */
-    private HashMap<String, String> _branches;
 
 
     /**
@@ -781,60 +1322,51 @@ public class Repo implements Serializable {
      * @param branchName bname
      */
     public void mergeCommand(String branchName) {
-        if (stagingArea.toBeAdded.size() != 0 || _untrackedFiles.size() != 0) {
+        if (staging().toBeAdded.size() != 0
+                || staging().removedFiles.size() != 0) {
             throw new GitletException("You have uncommitted changes.");
         }
-        if (!_branches.containsKey(branchName)) {
+        if (!refs().contains(branchName)) {
             throw new GitletException("A branch "
                     + "with that name does not exist.");
         }
-        if (branchName.equals(_head)) {
+        if (branchName.equals(refs().head())) {
             throw new GitletException("Cannot merge a "
                     + "branch with itself.");
         }
-        Commit lCA = getSplitPoint(branchName, _head);
-        if (lCA.sha().equals(_branches.get(branchName))) {
+        Commit lCA = getSplitPoint(branchName, refs().head());
+        if (lCA.sha().equals(refs().get(branchName))) {
             Utils.message("Given branch is an ancestor "
                     + "of the current branch.");
         }
-        if (lCA.sha().equals(_branches.get(_head))) {
-            String bNHead = _branches.get(branchName);
-            _branches.put(_head, bNHead);
+        if (lCA.sha().equals(getHeadCommitSha())) {
+            String bNHead = refs().get(branchName);
+            refs().put(refs().head(), bNHead);
             Utils.message("Current branch fast-forwarded.");
         }
         HashMap<String, String> lCAfiles = lCA.getFileMap();
         middleMerge(branchName);
         Commit currComm = getCommit(getHeadCommitSha());
         HashMap<String, String> current = currComm.getFileMap();
-        Commit givenComm = getCommit(_branches.get(branchName));
+        Commit givenComm = getCommit(refs().get(branchName));
         HashMap<String, String> given = givenComm.getFileMap();
+        TreeMap<String, String> added = new TreeMap<>();
         for (String fileName : given.keySet()) {
             if (!lCAfiles.containsKey(fileName)) {
                 if (!current.containsKey(fileName)) {
-                    String b = _branches.get(branchName);
-                    checkout(new String[]{b, "--", fileName});
-                    stagingArea.toBeAdded.put(fileName, given.get(fileName));
-                    File mergeFile = Utils.join(stagingFile, fileName);
-                    File mContents = Utils.join(blobFile, given.get(fileName));
-                    Utils.writeContents(mergeFile,
-                            Utils.readObject(mContents, String.class));
+                    added.put(fileName, given.get(fileName));
                 } else if (!given.containsKey(fileName)) {
                     continue;
                 } else if (mo(fileName, given, current)) {
-                    File c = Utils.join(blobFile, current.get(fileName));
-                    File g = Utils.join(blobFile, given.get(fileName));
-                    String contents = "<<<<<<< HEAD\n";
-                    contents += Utils.readContentsAsString(c);
-                    contents += "=======\n";
-                    contents += Utils.readContentsAsString(g) + ">>>>>>>";
-                    Utils.writeContents(new File(fileName), contents);
-                    addCommand(fileName);
-                    Utils.message("Encountered a merge conflict.");
+                    mergeConflict(branchName, fileName);
                 }
             }
         }
-        String msg = "Merged " + branchName + " into " + _head + ".";
-        mergeCommit(msg, _branches.get(branchName), getHeadCommitSha());
+        writeFiles(added, new ArrayList<>());
+        staging().toBeAdded.putAll(added);
+        String msg = "Merged " + branchName + " into "
+            + refs().head() + ".";
+        mergeCommit(msg, getHeadCommitSha(), refs().get(branchName));
 
     }
 
@@ -843,28 +1375,27 @@ public class Repo implements Serializable {
      * @param branchName bname
      */
     private void middleMerge(String branchName) {
-        Commit splitCommit = getSplitPoint(branchName, _head);
+        Commit splitCommit = getSplitPoint(branchName, refs().head());
         HashMap<String, String> splitFiles = splitCommit.getFileMap();
         Commit currComm = getCommit(getHeadCommitSha());
         HashMap<String, String> current = currComm.getFileMap();
-        String givID = _branches.get(branchName);
+        String givID = refs().get(branchName);
         Commit givenComm = getCommit(givID);
         HashMap<String, String> given = givenComm.getFileMap();
         checkForUntracked(givID);
+        TreeMap<String, String> taken = new TreeMap<>();
         for (String fileName : splitFiles.keySet()) {
             boolean presentInGiven = given.containsKey(fileName);
             boolean modifiedInCurrent = mo(fileName, splitFiles, current);
             boolean modifiedInGiven = mo(fileName, splitFiles, given);
             if (!modifiedInCurrent) {
                 if (!presentInGiven) {
-                    Utils.restrictedDelete(new File(fileName));
+                    deleteWorkingFile(fileName);
                     removeCommand(fileName);
                     continue;
                 }
                 if (modifiedInGiven) {
-                    String b = _branches.get(branchName);
-                    checkout(new String[]{b, "--", fileName});
-                    addCommand(fileName);
+                    taken.put(fileName, given.get(fileName));
                 }
             }
             if (modifiedInCurrent && modifiedInGiven) {
@@ -873,80 +1404,88 @@ public class Repo implements Serializable {
                 }
             }
         }
+        writeFiles(taken, new ArrayList<>());
+        for (String fileName : taken.keySet()) {
+            addCommand(fileName);
+        }
     }
 
 
     /**
-     * Checks for merge conflicts.
+     * Merges FILENAME, changed in both the current and the given branch,
+     * line by line against its contents at the split point, stages the
+     * result, and reports whether it has conflicts. A file deleted in
+     * one branch conflicts as a whole.
      * @param branchName bname
      * @param fileName fname
      */
     private void mergeConflict(String branchName, String fileName) {
-        Commit splitCommit = getSplitPoint(branchName, _head);
+        Commit splitCommit = getSplitPoint(branchName, refs().head());
         HashMap<String, String> splitFiles = splitCommit.getFileMap();
         Commit currComm = getCommit(getHeadCommitSha());
         HashMap<String, String> current = currComm.getFileMap();
-        Commit givenComm = getCommit(_branches.get(branchName));
+        Commit givenComm = getCommit(refs().get(branchName));
         HashMap<String, String> given = givenComm.getFileMap();
-        File c;
-        String cContents;
+        byte[] cContents;
         if (current.containsKey(fileName)) {
-            c = Utils.join(blobFile, current.get(fileName));
-            cContents = Utils.readObject(c, String.class);
+            cContents = readBlob(current.get(fileName));
         } else {
-            c = null;
-            cContents = "";
+            cContents = new byte[0];
         }
-        File g;
-        String gContents;
+        byte[] gContents;
         if (given.containsKey(fileName)) {
-            g = Utils.join(blobFile, given.get(fileName));
-            gContents = Utils.readObject(g, String.class);
+            gContents = readBlob(given.get(fileName));
         } else {
-            g = null;
-            gContents = "";
-        }
-        String contents = "<<<<<<< HEAD\n";
-        contents += cContents;
-        contents += "=======\n" + gContents;
-        contents += ">>>>>>>\n";
-        Utils.writeContents(Utils.join(cwd, fileName), contents);
+            gContents = new byte[0];
+        }
+        byte[] merged;
+        boolean conflict = true;
+        if (current.containsKey(fileName) && given.containsKey(fileName)) {
+            String base = splitFiles.get(fileName);
+            LineMerge merge = new LineMerge(
+                    base == null ? new byte[0] : readBlob(base),
+                    cContents, gContents);
+            merged = merge.result();
+            conflict = merge.conflicts() > 0;
+        } else {
+            merged = LineMerge.conflict(cContents, gContents);
+        }
+        Utils.join(cwd, fileName).getParentFile().mkdirs();
+        Utils.writeContents(Utils.join(cwd, fileName), merged);
+        statCache().remove(fileName);
         addCommand(fileName);
-        Utils.message("Encountered a merge conflict.");
+        if (conflict) {
+            Utils.message("Encountered a merge conflict.");
+        }
     }
 
     /**
-     * Return Commit of split point of branches.
+     * Return Commit of split point of branches. Results are cached by the
+     * pair of head commits, so the repeated calls made while merging walk
+     * history only once.
      * @param b1 b1
      * @param b2 b2
      */
     public Commit getSplitPoint(String b1, String b2) {
-        Commit splitpoint = null;
-        Commit b1Commit = getCommit(_branches.get(b1));
-        ArrayList<String> b1CommitList = new ArrayList<>();
-        while (b1Commit != null) {
-            b1CommitList.add(b1Commit.sha());
-            b1Commit = b1Commit.parent();
-        }
-        Commit b2Commit = getCommit(_branches.get(b2));
-        ArrayList<String> b2CommitList = new ArrayList<>();
-        while (b2Commit != null) {
-            b2CommitList.add(b2Commit.sha());
-            b2Commit = b2Commit.parent();
-        }
-        for (int i = b1CommitList.size() - 1; i > 0; i--) {
-            for (int j = b2CommitList.size() - 1; j > 0; j--) {
-                if (b1CommitList.get(i).equals(b2CommitList.get(j))) {
-                    splitpoint = getCommit(b1CommitList.get(i));
-                    break;
-                }
-            }
+        String c1 = refs().get(b1);
+        String c2 = refs().get(b2);
+        if (_splitPoints == null) {
+            _splitPoints = new HashMap<>();
         }
-        if (splitpoint == null) {
-            throw new GitletException();
-        } else {
-            return splitpoint;
+        String key = c1 + " " + c2;
+        String split = _splitPoints.get(key);
+        if (split == null) {
+            CommitGraph graph = graph();
+            int pos = new MergeBase(graph).find(
+                    graph.add(getCommit(c1), this),
+                    graph.add(getCommit(c2), this));
+            if (pos == CommitGraph.NONE) {
+                throw new GitletException();
+            }
+            split = graph.id(pos);
+            _splitPoints.put(key, split);
         }
+        return getCommit(split);
     }
 
 
@@ -1,17 +1,19 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.TreeSet;
 
-/** Staging area class.
+/** Staging area class. Staged files are already in the object store, so
+ * the staging area records only which blob each staged file name refers
+ * to. It is kept in .gitlet/staging, one line per file: "add BLOB NAME"
+ * for additions and "rm NAME" for removals.
  *
  * @author charlesellis
  *
  * */
-public class StagingArea implements Serializable {
+public class StagingArea {
 
     /** Hashmap of fileName, blob, of files that are staged for addition. */
     HashMap<String, String> toBeAdded;
@@ -19,22 +21,6 @@ public class StagingArea implements Serializable {
     /** Arraylist of fileNames of files that are staged for removal. */
     ArrayList<String> removedFiles;
 
-
-    /**
-     * Refers to current directory.
-     */
-    private static File cwd = Utils.join(System.getProperty("user.dir"));
-
-    /**
-     * Refers to gitfile.
-     */
-    private static File gitfile = Utils.join(cwd, ".gitlet");
-
-    /**
-     * Refers to repofile.
-     */
-    private static File stagingFile = Utils.join(gitfile, "/staging");
-
     /** Initializes a staging area. */
     StagingArea() {
         toBeAdded = new HashMap<>();
@@ -44,25 +30,61 @@ public class StagingArea implements Serializable {
     /** Resets staging area.*/
     void reset() {
         toBeAdded = new HashMap<>();
-        Repo r = Main.getMyRepo();
-        List<String> toBeDeleted = Utils.plainFilenamesIn(stagingFile);
-        for (String fileName : toBeDeleted) {
-            File temp = new File(stagingFile + "/" + fileName);
-            temp.delete();
-        }
         removedFiles = new ArrayList<>();
     }
-    /** Delete fileName from staging area and in stagingFile.
+
+    /** Delete fileName from staging area.
      * @param fileName fname
      * */
     void delete(String fileName) {
-        Repo r = Main.getMyRepo();
-        File temp = new File(stagingFile + "/" + fileName);
-        temp.delete();
         toBeAdded.remove(fileName);
     }
 
+    /** Returns the staging area kept in FILE, which is empty if FILE does
+     *  not exist.
+     * @param file the staging file
+     * */
+    static StagingArea read(File file) {
+        StagingArea result = new StagingArea();
+        if (file.isFile()) {
+            result._saved = Utils.readContentsAsString(file);
+            for (String line : result._saved.split("\n")) {
+                if (line.startsWith("add ")) {
+                    String[] parts = line.split(" ", 3);
+                    result.toBeAdded.put(parts[2], parts[1]);
+                } else if (line.startsWith("rm ")) {
+                    result.removedFiles.add(line.substring(3));
+                }
+            }
+        }
+        return result;
+    }
 
+    /** Writes this staging area to FILE if it differs from what was last
+     *  read from or written there, deleting FILE if it is empty.
+     * @param file the staging file
+     * */
+    void save(File file) {
+        StringBuilder out = new StringBuilder();
+        for (String fileName : new TreeSet<>(toBeAdded.keySet())) {
+            out.append("add ").append(toBeAdded.get(fileName)).append(' ')
+                .append(fileName).append('\n');
+        }
+        for (String fileName : removedFiles) {
+            out.append("rm ").append(fileName).append('\n');
+        }
+        String contents = out.toString();
+        if (contents.equals(_saved)) {
+            return;
+        }
+        if (contents.isEmpty()) {
+            file.delete();
+        } else {
+            Utils.replaceContents(file, contents);
+        }
+        _saved = contents;
+    }
 
-
+    /** The contents of the staging file when last read or written. */
+    private String _saved = "";
 }
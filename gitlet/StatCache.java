@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** The stat cache, kept in .gitlet/index: for each working file whose
+ *  blob ID has been computed, the file's size, modification time and
+ *  inode number at the time, and that ID. A file whose stat data still
+ *  matches is trusted to have the same ID without being read.
+ *
+ *  A file modified within the timestamp granularity of the index write
+ *  could change again without its modification time changing, so entries
+ *  whose modification time is not older than the index itself are
+ *  "racy" and are always rehashed.
+ *
+ *  The cache also keeps the file-system monitor token as of which it
+ *  last held an entry for every working file, if it has one.
+ *
+ *  @author charlesellis
+ */
+class StatCache {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47495832;
+
+    /** The stat cache kept in FILE.
+     * @param file the index file */
+    StatCache(File file) {
+        _file = file;
+    }
+
+    /** Returns the cached blob ID of the working file F, whose name is
+     *  NAME, or null if F has changed or might have changed since it was
+     *  last hashed.
+     * @param name the file name
+     * @param f the file */
+    String lookup(String name, File f) {
+        load();
+        Entry e = _entries.get(name);
+        if (e == null) {
+            return null;
+        }
+        long[] stat = stat(f);
+        if (stat == null || stat[0] != e._size || stat[1] != e._mtime
+                || stat[2] != e._inode || e._mtime >= _racy) {
+            return null;
+        }
+        return e._id;
+    }
+
+    /** Returns the cached blob ID of file NAME without checking that the
+     *  file is unchanged, or null if there is none.
+     * @param name the file name */
+    String get(String name) {
+        load();
+        Entry e = _entries.get(name);
+        return e == null ? null : e._id;
+    }
+
+    /** Returns a map from each file name in the cache to its cached blob
+     *  ID. */
+    TreeMap<String, String> ids() {
+        load();
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+            result.put(item.getKey(), item.getValue()._id);
+        }
+        return result;
+    }
+
+    /** Forgets every file not named in NAMES.
+     * @param names the file names to keep */
+    void retainAll(Set<String> names) {
+        load();
+        _dirty |= _entries.keySet().retainAll(names);
+    }
+
+    /** Returns the file-system monitor token as of which the cache
+     *  covers every working file, or null. */
+    String token() {
+        load();
+        return _token;
+    }
+
+    /** Sets the file-system monitor token as of which the cache covers
+     *  every working file to TOKEN, which may be null.
+     * @param token the monitor token */
+    void setToken(String token) {
+        load();
+        _dirty |= !Objects.equals(token, _token);
+        _token = token;
+    }
+
+    /** Records that the working file F, whose name is NAME, has blob ID
+     *  ID. A racy entry is written back even if unchanged, so that the
+     *  newer index makes it trustworthy.
+     * @param name the file name
+     * @param f the file
+     * @param id its blob ID */
+    void update(String name, File f, String id) {
+        load();
+        long[] stat = stat(f);
+        if (stat == null) {
+            remove(name);
+            return;
+        }
+        Entry e = new Entry(stat[0], stat[1], stat[2], id);
+        Entry old = _entries.put(name, e);
+        _dirty |= old == null || !old.equals(e) || e._mtime >= _racy;
+    }
+
+    /** Forgets file NAME.
+     * @param name the file name */
+    void remove(String name) {
+        load();
+        _dirty |= _entries.remove(name) != null;
+    }
+
+    /** Writes the cache back to its file if it has changed. */
+    void save() {
+        if (!_dirty) {
+            return;
+        }
+        File tmp = new File(_file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()),
+                    Utils.BUFFER))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(_token == null ? "" : _token);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+                Entry e = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(e._size);
+                out.writeLong(e._mtime);
+                out.writeLong(e._inode);
+                out.writeUTF(e._id);
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), _file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            _racy = Files.getLastModifiedTime(_file.toPath())
+                .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        _dirty = false;
+    }
+
+    /** Reads the cache from its file, if that has not been done. Once
+     *  loaded, the cache may be searched by lookup from several threads
+     *  at once, provided none is updating it. */
+    void load() {
+        if (_entries != null) {
+            return;
+        }
+        _entries = new TreeMap<>();
+        _racy = Long.MIN_VALUE;
+        if (!_file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(_file.toPath()),
+                    Utils.BUFFER))) {
+            _racy = Files.getLastModifiedTime(_file.toPath())
+                .to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            _token = in.readUTF();
+            if (_token.isEmpty()) {
+                _token = null;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i += 1) {
+                String name = in.readUTF();
+                _entries.put(name, new Entry(in.readLong(), in.readLong(),
+                        in.readLong(), in.readUTF()));
+            }
+        } catch (IOException excp) {
+            _entries.clear();
+            _token = null;
+        }
+    }
+
+    /** Returns the size, modification time in nanoseconds and inode
+     *  number of F, or null if F is not a plain file. Where inode numbers
+     *  are not available, the hash of the file key stands in.
+     * @param f the file */
+    static long[] stat(File f) {
+        Path p = f.toPath();
+        try {
+            Map<String, Object> unix =
+                Files.readAttributes(p, "unix:size,lastModifiedTime,ino");
+            return new long[] {(Long) unix.get("size"),
+                ((FileTime) unix.get("lastModifiedTime"))
+                    .to(TimeUnit.NANOSECONDS),
+                (Long) unix.get("ino")};
+        } catch (UnsupportedOperationException | IllegalArgumentException
+                 | IOException excp) {
+            try {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(p, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    return null;
+                }
+                Object key = attrs.fileKey();
+                return new long[] {attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    key == null ? 0 : key.hashCode()};
+            } catch (IOException excp2) {
+                return null;
+            }
+        }
+    }
+
+    /** Cached stat data and blob ID of one file. */
+    private static class Entry {
+        /** Stat data SIZE, MTIME and INODE, and blob ID ID.
+         * @param size the size
+         * @param mtime the modification time in nanoseconds
+         * @param inode the inode number
+         * @param id the blob ID */
+        Entry(long size, long mtime, long inode, String id) {
+            _size = size;
+            _mtime = mtime;
+            _inode = inode;
+            _id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry) obj;
+            return _size == e._size && _mtime == e._mtime
+                && _inode == e._inode && _id.equals(e._id);
+        }
+
+        @Override
+        public int hashCode() {
+            return _id.hashCode();
+        }
+
+        /** File size. */
+        private long _size;
+        /** Modification time in nanoseconds. */
+        private long _mtime;
+        /** Inode number. */
+        private long _inode;
+        /** Blob ID. */
+        private String _id;
+    }
+
+    /** The index file. */
+    private File _file;
+    /** Cached entries by file name, or null if not yet loaded. */
+    private TreeMap<String, Entry> _entries;
+    /** Entries modified at or after this time, in nanoseconds, are
+     *  racy. */
+    private long _racy;
+    /** File-system monitor token, or null. */
+    private String _token;
+    /** True iff _entries differs from the file. */
+    private boolean _dirty;
+}
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Tree objects: the contents of one directory of a commit. A tree is
+ *  encoded as one line "ID NAME" per entry in name order, where ID is
+ *  the blob ID ("B...") of a file or the tree ID ("T...") of a
+ *  subdirectory, and its ID is "T" followed by the sha1 of that
+ *  encoding. A commit names the tree of its top directory, so two
+ *  commits share every subtree they do not differ in, and a new commit
+ *  writes trees only for the directories holding its changes. Empty
+ *  directories have no tree.
+ *
+ *  @author charlesellis
+ */
+class Tree {
+
+    /** Prefix of tree IDs. */
+    static final String PREFIX = "T";
+
+    /** Returns the entries of tree ID, a map from name to blob or tree
+     *  ID, read from STORE.
+     * @param store the object store
+     * @param id a tree ID */
+    static TreeMap<String, String> read(ObjectStore store, String id) {
+        byte[] bytes = store.readTree(id);
+        if (bytes == null) {
+            throw new GitletException("Missing tree " + id + ".");
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            String[] entry = line.split(" ", 2);
+            if (entry.length == 2) {
+                result.put(entry[1], entry[0]);
+            }
+        }
+        return result;
+    }
+
+    /** Writes the trees of a snapshot into STORE and returns the ID of its
+     *  top tree, or null if it has no files. The snapshot is that of tree
+     *  BASE, which may be null for the empty snapshot, changed by CHANGES,
+     *  a map from '/'-separated path to new blob ID, or to null for a
+     *  removed file. Only the trees of directories containing changes are
+     *  read or written; the rest keep their IDs.
+     * @param store the object store
+     * @param base the tree the changes apply to
+     * @param changes changed paths */
+    static String write(ObjectStore store, String base,
+                        Map<String, String> changes) {
+        TreeMap<String, String> entries =
+            base == null ? new TreeMap<>() : read(store, base);
+        TreeMap<String, HashMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash),
+                                        d -> new HashMap<>())
+                    .put(path.substring(slash + 1), e.getValue());
+            } else if (e.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, e.getValue());
+            }
+        }
+        for (Map.Entry<String, HashMap<String, String>> e
+                 : subdirs.entrySet()) {
+            String old = entries.get(e.getKey());
+            boolean dir = old != null && old.startsWith(PREFIX);
+            String id = write(store, dir ? old : null, e.getValue());
+            if (id == null) {
+                if (dir) {
+                    entries.remove(e.getKey());
+                }
+            } else {
+                entries.put(e.getKey(), id);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            out.append(e.getValue()).append(' ').append(e.getKey())
+                .append('\n');
+        }
+        byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+        String id = PREFIX + Utils.sha1(bytes);
+        if (!store.hasTree(id)) {
+            store.writeTree(id, bytes);
+        }
+        return id;
+    }
+
+    /** Returns the differences between trees FROM and TO, either of which
+     *  may be null for no files: a map from the path of each file that is
+     *  added or changed in TO to its blob ID there, and of each file only
+     *  in FROM to null. Subtrees with equal IDs are not read.
+     * @param store the object store
+     * @param from a tree ID
+     * @param to a tree ID */
+    static TreeMap<String, String> diff(ObjectStore store, String from,
+                                        String to) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(store, from, to, "", result);
+        return result;
+    }
+
+    /** Adds the differences between trees FROM and TO, with paths
+     *  preceded by PREFIX, to RESULT, as for diff(STORE, FROM, TO).
+     * @param store the object store
+     * @param from a tree ID, or null
+     * @param to a tree ID, or null
+     * @param prefix path of the trees' directory, with a trailing '/'
+     * @param result the differences */
+    private static void diff(ObjectStore store, String from, String to,
+                             String prefix, TreeMap<String, String> result) {
+        if (from == null ? to == null : from.equals(to)) {
+            return;
+        }
+        TreeMap<String, String> a =
+            from == null ? new TreeMap<>() : read(store, from);
+        TreeMap<String, String> b =
+            to == null ? new TreeMap<>() : read(store, to);
+        TreeMap<String, String> names = new TreeMap<>(a);
+        names.putAll(b);
+        for (String name : names.keySet()) {
+            String x = a.get(name);
+            String y = b.get(name);
+            if (x != null && x.equals(y)) {
+                continue;
+            }
+            String path = prefix + name;
+            boolean xTree = x != null && x.startsWith(PREFIX);
+            boolean yTree = y != null && y.startsWith(PREFIX);
+            if (xTree || yTree) {
+                diff(store, xTree ? x : null, yTree ? y : null,
+                     path + "/", result);
+            }
+            if (x != null && !xTree || y != null && !yTree) {
+                result.put(path, yTree ? null : y);
+            }
+        }
+    }
+
+    /** Returns a map from the '/'-separated path of every file under tree
+     *  ID, which may be null for no files, to its blob ID.
+     * @param store the object store
+     * @param id a tree ID */
+    static HashMap<String, String> flatten(ObjectStore store, String id) {
+        HashMap<String, String> result = new HashMap<>();
+        if (id != null) {
+            flatten(store, id, "", result);
+        }
+        return result;
+    }
+
+    /** Adds the files under tree ID to RESULT, their paths preceded by
+     *  PREFIX.
+     * @param store the object store
+     * @param id a tree ID
+     * @param prefix path of the tree's directory, with a trailing '/'
+     * @param result paths and blob IDs */
+    private static void flatten(ObjectStore store, String id, String prefix,
+                                HashMap<String, String> result) {
+        for (Map.Entry<String, String> e : read(store, id).entrySet()) {
+            if (e.getValue().startsWith(PREFIX)) {
+                flatten(store, e.getValue(), prefix + e.getKey() + "/",
+                        result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+}
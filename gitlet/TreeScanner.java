@@ -0,0 +1,147 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Computes the blob IDs of the files of a working directory, spreading
+ *  the stat calls and hashing over a ForkJoinPool. Files whose stat data
+ *  match the stat cache are not read; the rest are hashed with each
+ *  worker's own digest, and the cache is brought up to date afterwards
+ *  on the calling thread, since it is not itself thread-safe.
+ *
+ *  The number of threads is the value of the system property
+ *  gitlet.threads, by default the number of available processors.
+ *
+ *  @author charlesellis
+ */
+class TreeScanner {
+
+    /** Number of worker threads. */
+    static final int THREADS = Math.max(1, Integer.getInteger(
+            "gitlet.threads", Runtime.getRuntime().availableProcessors()));
+    /** Number of files below which a task is not split further. */
+    private static final int LEAF = 16;
+
+    /** A scanner for the working directory DIR, using CACHE.
+     * @param dir the working directory
+     * @param cache the stat cache of DIR */
+    TreeScanner(File dir, StatCache cache) {
+        _dir = dir;
+        _cache = cache;
+    }
+
+    /** Returns a map from each name in NAMES that is still a plain file
+     *  in the working directory to its blob ID. The result does not
+     *  depend on the number of threads or on their scheduling.
+     * @param names file names */
+    TreeMap<String, String> scan(List<String> names) {
+        int n = names.size();
+        File[] files = new File[n];
+        String[] ids = new String[n];
+        boolean[] hashed = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            files[i] = Utils.join(_dir, names.get(i));
+        }
+        _cache.load();
+        Task all = new Task(names, files, ids, hashed, 0, n);
+        if (THREADS == 1 || n <= LEAF) {
+            all.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(THREADS);
+            try {
+                pool.invoke(all);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < n; i += 1) {
+            if (ids[i] == null) {
+                continue;
+            }
+            if (hashed[i]) {
+                _cache.update(names.get(i), files[i], ids[i]);
+            }
+            result.put(names.get(i), ids[i]);
+        }
+        return result;
+    }
+
+    /** Looks up or hashes a range of the files being scanned. */
+    private class Task extends RecursiveAction {
+
+        /** Serialization version; tasks are never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        /** Fills IDS[LO..HI-1] with the blob IDs of FILES[LO..HI-1],
+         *  whose names are NAMES[LO..HI-1], setting HASHED[i] when the
+         *  cache could not supply IDS[i].
+         * @param names the file names
+         * @param files the files
+         * @param ids the resulting blob IDs
+         * @param hashed which files had to be read
+         * @param lo first index
+         * @param hi index after the last */
+        Task(List<String> names, File[] files, String[] ids,
+             boolean[] hashed, int lo, int hi) {
+            _names = names;
+            _files = files;
+            _ids = ids;
+            _hashed = hashed;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= LEAF) {
+                for (int i = _lo; i < _hi; i += 1) {
+                    hash(i);
+                }
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Task(_names, _files, _ids, _hashed, _lo, mid),
+                          new Task(_names, _files, _ids, _hashed, mid, _hi));
+            }
+        }
+
+        /** Sets _IDS[I], leaving it null if _FILES[I] has gone.
+         * @param i the index */
+        private void hash(int i) {
+            String id = _cache.lookup(_names.get(i), _files[i]);
+            if (id == null) {
+                if (!_files[i].isFile()) {
+                    return;
+                }
+                try {
+                    id = "B" + Utils.sha1(_files[i]);
+                } catch (IllegalArgumentException excp) {
+                    return;
+                }
+                _hashed[i] = true;
+            }
+            _ids[i] = id;
+        }
+
+        /** File names. */
+        private final List<String> _names;
+        /** Files. */
+        private final File[] _files;
+        /** Resulting blob IDs. */
+        private final String[] _ids;
+        /** Which files were hashed. */
+        private final boolean[] _hashed;
+        /** First index. */
+        private final int _lo;
+        /** Index after the last. */
+        private final int _hi;
+    }
+
+    /** The working directory. */
+    private File _dir;
+    /** Its stat cache. */
+    private StatCache _cache;
+}
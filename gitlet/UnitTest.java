@@ -2,9 +2,18 @@ package gitlet;
 
 import ucb.junit.textui;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /** The suite of all JUnit tests for the gitlet package.
  *  @author charlesellis
@@ -15,6 +24,21 @@ public class UnitTest {
                 new File("/Users/charlesellis/Desktop/gits").getAbsolutePath());
     }
 
+    /** Returns a new empty temporary directory. */
+    private static File tempDirectory() {
+        try {
+            return Files.createTempDirectory("gitlet").toFile();
+        } catch (IOException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    /** Returns the 40-digit hex ID whose digits are all C.
+     * @param c a hex digit */
+    private static String id(char c) {
+        return String.valueOf(c).repeat(Utils.UID_LENGTH);
+    }
+
     /** Run the JUnit tests in the loa package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
@@ -98,7 +122,360 @@ public class UnitTest {
         makeDirectory();
         Main.main("find", "Commit #1");
     }
-}
 
+    @Test
+    public void packLookupTest() {
+        File dir = tempDirectory();
+        Pack pack = new Pack(dir);
+        assertFalse(pack.contains(id('a'), ObjectStore.BLOB));
+        ArrayList<Pack.Entry> first = new ArrayList<>();
+        first.add(new Pack.Entry(id('c'), ObjectStore.BLOB,
+                                 "see".getBytes()));
+        first.add(new Pack.Entry(id('a'), ObjectStore.BLOB,
+                                 "ay".getBytes()));
+        pack.append(first);
+        ArrayList<Pack.Entry> second = new ArrayList<>();
+        String ab = "ab" + id('0').substring(2);
+        second.add(new Pack.Entry(ab, ObjectStore.COMMIT,
+                                  "commit".getBytes()));
+        second.add(new Pack.Entry(id('b'), ObjectStore.BLOB,
+                                  new byte[0]));
+        pack.append(second);
+        for (Pack p : new Pack[] {pack, new Pack(dir)}) {
+            assertArrayEquals("ay".getBytes(),
+                              p.read(id('a'), ObjectStore.BLOB));
+            assertArrayEquals("see".getBytes(),
+                              p.read(id('c'), ObjectStore.BLOB));
+            assertArrayEquals(new byte[0], p.read(id('b'), ObjectStore.BLOB));
+            assertArrayEquals("commit".getBytes(),
+                              p.read(ab, ObjectStore.COMMIT));
+            assertTrue(p.contains(ab, ObjectStore.COMMIT));
+            assertFalse(p.contains(ab, ObjectStore.BLOB));
+            assertNull(p.read(ab, ObjectStore.BLOB));
+            assertFalse(p.contains(id('d'), ObjectStore.BLOB));
+            assertNull(p.read(id('0'), ObjectStore.BLOB));
+            assertEquals(List.of(id('a'), id('b'), id('c')),
+                         p.ids(ObjectStore.BLOB));
+            assertEquals(List.of(id('a')),
+                         p.idsWithPrefix("a", ObjectStore.BLOB, 10));
+            assertEquals(List.of(ab),
+                         p.idsWithPrefix("a", ObjectStore.COMMIT, 10));
+            assertEquals(List.of(id('a'), id('b')),
+                         p.idsWithPrefix("", ObjectStore.BLOB, 2));
+            assertEquals(List.of(),
+                         p.idsWithPrefix("f", ObjectStore.BLOB, 10));
+        }
+    }
 
+    /** Asserts that the delta from BASE to TARGET rebuilds TARGET.
+     * @param base the base contents
+     * @param target the contents to rebuild */
+    private static void assertDelta(byte[] base, byte[] target) {
+        assertArrayEquals(target,
+                          Delta.apply(base, Delta.create(base, target)));
+    }
+
+    @Test
+    public void deltaRoundTripTest() {
+        Random random = new Random(61);
+        byte[] base = new byte[20000];
+        random.nextBytes(base);
+        assertDelta(base, base);
+        assertDelta(new byte[0], base);
+        assertDelta(base, new byte[0]);
+        assertDelta(new byte[0], new byte[0]);
+        assertTrue(Delta.create(base, base).length < base.length / 10);
+        for (int trial = 0; trial < 20; trial += 1) {
+            byte[] target = base.clone();
+            for (int k = random.nextInt(8); k >= 0; k -= 1) {
+                int at = random.nextInt(target.length);
+                int len = random.nextInt(Math.min(500, target.length - at));
+                byte[] edited = new byte[target.length - len + 300];
+                random.nextBytes(edited);
+                System.arraycopy(target, at, edited, at + 300,
+                                 target.length - at - len);
+                System.arraycopy(target, 0, edited, 0, at);
+                target = edited;
+            }
+            assertDelta(base, target);
+            assertDelta(target, base);
+        }
+    }
 
+    @Test
+    public void packedDeltaTest() {
+        byte[] base = "line 1\nline 2\nline 3\n".repeat(100).getBytes();
+        byte[] target = ("line 0\n" + new String(base)).getBytes();
+        File dir = tempDirectory();
+        Pack pack = new Pack(dir);
+        ArrayList<Pack.Entry> entries = new ArrayList<>();
+        entries.add(new Pack.Entry(id('1'), ObjectStore.BLOB, base));
+        entries.add(new Pack.Entry(id('2'), ObjectStore.BLOB, id('1'),
+                                   Delta.create(base, target)));
+        pack.append(entries);
+        assertEquals(0, pack.depth(id('1')));
+        assertEquals(1, pack.depth(id('2')));
+        assertArrayEquals(target,
+                          new Pack(dir).read(id('2'), ObjectStore.BLOB));
+        assertArrayEquals(base, new Pack(dir).read(id('1'), ObjectStore.BLOB));
+    }
+
+    /** Returns a commit with message MESSAGE and the given PARENTS,
+     *  dated TIME.
+     * @param message the message
+     * @param time the commit time, in seconds
+     * @param parents sha1 IDs of its parents, first parent first */
+    private static Commit commit(String message, long time,
+                                 Commit... parents) {
+        Commit result;
+        if (parents.length == 2) {
+            result = new MergeCommit(message, null, new HashMap<>(), true,
+                                     new String[] {parents[0].sha(),
+                                                   parents[1].sha()});
+        } else {
+            result = new Commit(message, parents.length == 0 ? null
+                                : parents[0].sha(), null,
+                                new HashMap<>(), false);
+        }
+        result._time = time;
+        return result;
+    }
+
+    @Test
+    public void commitGraphTest() {
+        File dir = tempDirectory();
+        CommitGraph graph = new CommitGraph(new File(dir, "graph"));
+        assertEquals(0, graph.size());
+        ArrayList<Commit> line = new ArrayList<>();
+        line.add(commit("root", 10));
+        int n = CommitGraph.TAIL + 10;
+        for (int i = 1; i < n; i += 1) {
+            line.add(commit("c" + i, 10 + i, line.get(i - 1)));
+        }
+        for (Commit c : line) {
+            graph.add(c, null);
+        }
+        Commit side = commit("side", 5, line.get(3));
+        Commit merge = commit("merge", 7, line.get(n - 1), side);
+        assertEquals(n, graph.add(side, null));
+        assertEquals(n + 1, graph.add(merge, null));
+        assertEquals(n + 2, graph.size());
+        for (CommitGraph g : new CommitGraph[] {
+                graph, new CommitGraph(new File(dir, "graph")) }) {
+            for (int i = 0; i < n; i += 1) {
+                int pos = g.position(line.get(i).sha());
+                assertEquals(i, pos);
+                assertEquals(line.get(i).sha(), g.id(pos));
+                assertEquals(i + 1, g.generation(pos));
+                assertEquals(10 + i, g.time(pos));
+                assertEquals(i == 0 ? 0 : 1, g.parents(pos).length);
+            }
+            int pos = g.position(merge.sha());
+            assertEquals(n, g.position(side.sha()));
+            assertEquals(5, g.generation(n));
+            assertEquals(n + 1, g.generation(pos));
+            assertEquals(n - 1, g.parents(pos)[0]);
+            assertEquals(n, g.parents(pos)[1]);
+            assertEquals(CommitGraph.NONE, g.position(id('0')));
+        }
+    }
+
+    /** Returns the merge base in a graph of COMMITS, added in order, of
+     *  commits X and Y.
+     * @param commits the history, parents first
+     * @param x a commit
+     * @param y a commit */
+    private static String mergeBase(List<Commit> commits, Commit x,
+                                    Commit y) {
+        CommitGraph graph =
+            new CommitGraph(new File(tempDirectory(), "graph"));
+        for (Commit c : commits) {
+            graph.add(c, null);
+        }
+        int pos = new MergeBase(graph).find(graph.position(x.sha()),
+                                            graph.position(y.sha()));
+        return pos == CommitGraph.NONE ? null : graph.id(pos);
+    }
+
+    @Test
+    public void mergeBaseLinearTest() {
+        Commit a = commit("a", 1);
+        Commit b = commit("b", 2, a);
+        Commit c = commit("c", 3, b);
+        Commit d = commit("d", 4, b);
+        Commit other = commit("other", 5);
+        List<Commit> all = List.of(a, b, c, d, other);
+        assertEquals(b.sha(), mergeBase(all, c, d));
+        assertEquals(b.sha(), mergeBase(all, b, c));
+        assertEquals(c.sha(), mergeBase(all, c, c));
+        assertNull(mergeBase(all, c, other));
+    }
+
+    @Test
+    public void mergeBaseCrissCrossTest() {
+        Commit a = commit("a", 1);
+        Commit b = commit("b", 2, a);
+        Commit c = commit("c", 3, a);
+        Commit d = commit("d", 4, b, c);
+        Commit e = commit("e", 4, c, b);
+        String base = mergeBase(List.of(a, b, c, d, e), d, e);
+        assertTrue(base.equals(b.sha()) || base.equals(c.sha()));
+    }
+
+    /** C is dated before its ancestors, so a walk by time alone would
+     *  reach B, a common ancestor of C, first. */
+    @Test
+    public void mergeBaseGenerationTest() {
+        Commit a = commit("a", 1000);
+        Commit b = commit("b", 2000, a);
+        Commit c = commit("c", 500, b);
+        Commit d = commit("d", 3000, c, b);
+        Commit e = commit("e", 3000, c, b);
+        assertEquals(c.sha(), mergeBase(List.of(a, b, c, d, e), d, e));
+    }
+
+    @Test
+    public void lineDiffMatchTest() {
+        Random random = new Random(24);
+        for (int trial = 0; trial < 200; trial += 1) {
+            int[] a = new int[random.nextInt(30)];
+            int[] b = new int[random.nextInt(30)];
+            for (int i = 0; i < a.length; i += 1) {
+                a[i] = random.nextInt(5);
+            }
+            for (int i = 0; i < b.length; i += 1) {
+                b[i] = random.nextInt(5);
+            }
+            int[] match = LineDiff.match(a, b, 5);
+            assertEquals(a.length, match.length);
+            int matched = 0;
+            int last = -1;
+            for (int i = 0; i < a.length; i += 1) {
+                if (match[i] >= 0) {
+                    assertTrue(match[i] > last);
+                    assertEquals(a[i], b[match[i]]);
+                    last = match[i];
+                    matched += 1;
+                }
+            }
+            int[][] lcs = new int[a.length + 1][b.length + 1];
+            for (int i = a.length - 1; i >= 0; i -= 1) {
+                for (int j = b.length - 1; j >= 0; j -= 1) {
+                    lcs[i][j] = a[i] == b[j] ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+            assertEquals(lcs[0][0], matched);
+        }
+    }
+
+    /** Asserts that merging OURS and THEIRS, changed from BASE, gives
+     *  EXPECTED with CONFLICTS conflicting regions.
+     * @param base contents at the split point
+     * @param ours contents in the current branch
+     * @param theirs contents in the given branch
+     * @param expected the merged contents
+     * @param conflicts number of conflicts */
+    private static void assertMerge(String base, String ours, String theirs,
+                                    String expected, int conflicts) {
+        LineMerge merge = new LineMerge(base.getBytes(), ours.getBytes(),
+                                        theirs.getBytes());
+        assertEquals(expected, new String(merge.result()));
+        assertEquals(conflicts, merge.conflicts());
+    }
+
+    @Test
+    public void lineMergeCleanTest() {
+        String base = "1\n2\n3\n4\n5\n";
+        assertMerge(base, base, base, base, 0);
+        assertMerge(base, "1\ntwo\n3\n4\n5\n", base,
+                    "1\ntwo\n3\n4\n5\n", 0);
+        assertMerge(base, "1\ntwo\n3\n4\n5\n", "1\n2\n3\n4\nfive\n",
+                    "1\ntwo\n3\n4\nfive\n", 0);
+        assertMerge(base, "0\n1\n2\n3\n5\n", "1\n2\n3\n5\n6\n",
+                    "0\n1\n2\n3\n5\n6\n", 0);
+        assertMerge(base, "1\n2\nthree\n4\n5\n",
+                    "1\n2\nthree\n4\n5\n", "1\n2\nthree\n4\n5\n", 0);
+        assertMerge("", "new\n", "", "new\n", 0);
+    }
+
+    @Test
+    public void lineMergeConflictTest() {
+        assertMerge("1\n2\n3\n", "1\nsame\nours\nend\n3\n",
+                    "1\nsame\ntheirs\nend\n3\n",
+                    "1\nsame\n" + LineMerge.OURS + "ours\n"
+                    + LineMerge.SEPARATOR + "theirs\n" + LineMerge.THEIRS
+                    + "end\n3\n", 1);
+        assertMerge("1\n2\n3\n4\n5\n", "A\n2\n3\n4\nE\n",
+                    "a\n2\n3\n4\ne\n",
+                    LineMerge.OURS + "A\n" + LineMerge.SEPARATOR + "a\n"
+                    + LineMerge.THEIRS + "2\n3\n4\n" + LineMerge.OURS
+                    + "E\n" + LineMerge.SEPARATOR + "e\n"
+                    + LineMerge.THEIRS, 2);
+        assertMerge("x\n", "ours", "theirs",
+                    LineMerge.OURS + "ours\n" + LineMerge.SEPARATOR
+                    + "theirs\n" + LineMerge.THEIRS, 1);
+        assertMerge("x\n", "o\0\n", "x\n",
+                    LineMerge.OURS + "o\0\n" + LineMerge.SEPARATOR
+                    + "x\n" + LineMerge.THEIRS, 1);
+    }
+
+    @Test
+    public void refsFileNameTest() {
+        assertEquals("master", Refs.fileName("master"));
+        assertEquals("feature%2Fx", Refs.fileName("feature/x"));
+        assertEquals("%2E.", Refs.fileName(".."));
+        assertEquals("y%2Etmp", Refs.fileName("y.tmp"));
+        assertEquals("x.tmp.y", Refs.fileName("x.tmp.y"));
+        assertEquals("%25", Refs.fileName("%"));
+        assertEquals("a%5Cb%09c%7F", Refs.fileName("a\\b\tc\u007f"));
+        for (String branch : new String[] {
+                "master", "feature/x", "..", ".hidden", "y.tmp", "%", "%2F",
+                "a\\b", "tab\tnew\nline", "caf\u00e9/\u00fcber", "a.b.c" }) {
+            String file = Refs.fileName(branch);
+            assertFalse(file.contains("/") || file.contains("\\"));
+            assertFalse(file.startsWith(".") || file.endsWith(".tmp"));
+            assertEquals(branch, Refs.branchName(file));
+        }
+    }
+
+    /** Sets the modification time of F to TIME.
+     * @param f a file
+     * @param time milliseconds since the epoch */
+    private static void touch(File f, long time) {
+        try {
+            Files.setLastModifiedTime(f.toPath(),
+                                      FileTime.fromMillis(time));
+        } catch (IOException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    @Test
+    public void statCacheRacyTest() {
+        File dir = tempDirectory();
+        File index = new File(dir, "index");
+        File f = new File(dir, "f.txt");
+        String id = id('1');
+        long then = System.currentTimeMillis()
+            - TimeUnit.SECONDS.toMillis(10);
+        Utils.writeContents(f, "contents");
+        touch(f, then);
+        StatCache cache = new StatCache(index);
+        cache.update("f.txt", f, id);
+        cache.save();
+        assertEquals(id, new StatCache(index).lookup("f.txt", f));
+        touch(index, then);
+        cache = new StatCache(index);
+        assertNull(cache.lookup("f.txt", f));
+        assertEquals(id, cache.get("f.txt"));
+        cache.update("f.txt", f, id);
+        cache.save();
+        assertTrue(index.lastModified() > then);
+        assertEquals(id, new StatCache(index).lookup("f.txt", f));
+        Utils.writeContents(f, "changed contents");
+        touch(f, then);
+        assertNull(new StatCache(index).lookup("f.txt", f));
+        assertNull(new StatCache(index).lookup("g.txt", f));
+    }
+}
@@ -1,22 +1,36 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -43,11 +57,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return toHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -59,6 +69,56 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  fixed-size buffer so that memory use does not grow with FILE. */
+    static String sha1(File file) {
+        return hashAndCopy(file, null);
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, which are written
+     *  unchanged to OUT in the same pass if OUT is not null.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String hashAndCopy(File file, OutputStream out) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MessageDigest md = DIGESTS.get();
+            md.reset();
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf.array(), 0, buf.limit());
+                if (out != null) {
+                    out.write(buf.array(), 0, buf.limit());
+                }
+                buf.clear();
+            }
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Each thread's SHA-1 digest for hashing files, so that threads
+     *  hashing the working tree in parallel do not share one. */
+    private static final ThreadLocal<MessageDigest> DIGESTS =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+            }
+        });
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        Formatter result = new Formatter();
+        for (byte b : bytes) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -100,6 +160,20 @@ class Utils {
         }
     }
 
+    /** Return the contents of FILE, or only their first LIMIT bytes if
+     *  it is longer.  FILE must be a normal file.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static byte[] readContents(File file, int limit) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return in.readNBytes(limit);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return the entire contents of FILE as a String.  FILE must
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
@@ -132,25 +206,200 @@ class Utils {
         }
     }
 
+    /** Replace the contents of FILE with the concatenation of CONTENTS,
+     *  as for writeContents, by writing a temporary file and renaming it
+     *  over FILE, so that readers see either the old or the new contents
+     *  and never a mixture.  Creates FILE's directory if needed. */
+    static void replaceContents(File file, Object... contents) {
+        File tmp = new File(file.getPath() + ".tmp");
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE may be compressed or not.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
+        Inflater inf = inflater();
+        try (ObjectInputStream in =
+                new ObjectInputStream(openCompressed(file, inf))) {
+            return expectedClass.cast(in.readObject());
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release(inf);
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE, compressed at COMPRESSION_LEVEL. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        Deflater def = deflater(COMPRESSION_LEVEL);
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new DeflaterOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file.toPath())), def, BUFFER))) {
+            out.writeObject(obj);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release(def);
+        }
+    }
+
+    /* COMPRESSED FILES */
+
+    /** Compression level of objects written by writeObject and
+     *  writeCompressed, from 0 (none) to 9 (smallest), or -1 for zlib's
+     *  default, set by the gitlet.compression system property. Values
+     *  out of that range are clamped to it, since Deflater rejects them
+     *  only once the first object is written. */
+    static final int COMPRESSION_LEVEL =
+        Math.max(Deflater.DEFAULT_COMPRESSION,
+                 Math.min(Deflater.BEST_COMPRESSION,
+                          Integer.getInteger("gitlet.compression",
+                                             Deflater.BEST_SPEED)));
+
+    /** Size of the buffers used in streaming compression. */
+    static final int BUFFER = 8192;
+
+    /** Most compressors kept in each pool. */
+    private static final int POOL_SIZE = 8;
+
+    /** Idle compressors, reused so that writing a small object does not
+     *  pay for setting up a new one. */
+    private static final ArrayDeque<Deflater> DEFLATERS = new ArrayDeque<>();
+
+    /** Idle decompressors. */
+    private static final ArrayDeque<Inflater> INFLATERS = new ArrayDeque<>();
+
+    /** Write BYTES to FILE, compressed at LEVEL. */
+    static void writeCompressed(File file, byte[] bytes, int level) {
+        Deflater def = deflater(level);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(
+                Files.newOutputStream(file.toPath()), def, BUFFER)) {
+            out.write(bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release(def);
+        }
+    }
+
+    /** Write BYTES to FILE, compressed at COMPRESSION_LEVEL. */
+    static void writeCompressed(File file, byte[] bytes) {
+        writeCompressed(file, bytes, COMPRESSION_LEVEL);
+    }
+
+    /** Write the uncompressed contents of FILE, which may have been
+     *  written compressed or not, to DEST, streaming through a fixed-size
+     *  buffer. */
+    static void copyCompressed(File file, File dest) {
+        Inflater inf = inflater();
+        try (InputStream in = openCompressed(file, inf)) {
+            Files.copy(in, dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release(inf);
+        }
+    }
+
+    /** Return the uncompressed contents of FILE, which may have been
+     *  written compressed or not. */
+    static byte[] readCompressed(File file) {
+        Inflater inf = inflater();
+        try (InputStream in = openCompressed(file, inf)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release(inf);
+        }
+    }
+
+    /** Return the uncompressed contents of FILE, as for readCompressed,
+     *  or only their first LIMIT bytes if they are longer, decompressing
+     *  no more than that. */
+    static byte[] readCompressed(File file, int limit) {
+        Inflater inf = inflater();
+        try (InputStream in = openCompressed(file, inf)) {
+            return in.readNBytes(limit);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release(inf);
+        }
+    }
+
+    /** Return a buffered stream of the uncompressed contents of FILE,
+     *  decompressing with INF if FILE starts with a zlib header. */
+    private static InputStream openCompressed(File file, Inflater inf)
+        throws IOException {
+        BufferedInputStream in =
+            new BufferedInputStream(new FileInputStream(file), BUFFER);
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == 0x78 && b1 >= 0 && (b0 * 256 + b1) % 31 == 0) {
+            return new InflaterInputStream(in, inf, BUFFER);
+        }
+        return in;
+    }
+
+    /** Return an idle compressor set to LEVEL. */
+    static Deflater deflater(int level) {
+        Deflater def;
+        synchronized (DEFLATERS) {
+            def = DEFLATERS.poll();
+        }
+        if (def == null) {
+            return new Deflater(level);
+        }
+        def.setLevel(level);
+        return def;
+    }
+
+    /** Return DEF, which the caller is done with, to its pool. */
+    static void release(Deflater def) {
+        def.reset();
+        synchronized (DEFLATERS) {
+            if (DEFLATERS.size() < POOL_SIZE) {
+                DEFLATERS.push(def);
+                return;
+            }
+        }
+        def.end();
+    }
+
+    /** Return an idle decompressor. */
+    static Inflater inflater() {
+        Inflater inf;
+        synchronized (INFLATERS) {
+            inf = INFLATERS.poll();
+        }
+        return inf == null ? new Inflater() : inf;
+    }
+
+    /** Return INF, which the caller is done with, to its pool. */
+    static void release(Inflater inf) {
+        inf.reset();
+        synchronized (INFLATERS) {
+            if (INFLATERS.size() < POOL_SIZE) {
+                INFLATERS.push(inf);
+                return;
+            }
+        }
+        inf.end();
     }
 
     /* DIRECTORIES */
@@ -184,6 +433,35 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths, relative to DIR and separated by '/', of all
+     *  plain files in DIR and its subdirectories other than .gitlet, in
+     *  lexicographic order as Java Strings. Returns an empty list if DIR
+     *  does not denote a directory. */
+    static List<String> plainFilesUnder(File dir) {
+        ArrayList<String> result = new ArrayList<>();
+        addFilesUnder(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Adds to RESULT the paths of the plain files in DIR and its
+     *  subdirectories other than .gitlet, each preceded by PREFIX. */
+    private static void addFilesUnder(File dir, String prefix,
+                                      List<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isFile()) {
+                result.add(prefix + name);
+            } else if (f.isDirectory() && !name.equals(".gitlet")) {
+                addFilesUnder(f, prefix + name + "/", result);
+            }
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -216,8 +494,6 @@ class Utils {
         }
     }
 
-
-
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as